@@ -1,67 +1,919 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
 public class AutocompleteSystem {
 
-    // Store global frequency
-    private Map<String, Integer> frequencyMap;
+    // Number of suggestions returned per prefix
+    private static final int TOP_K = 10;
 
-    // Trie Node
+    // Typo tolerance for suggestWithTypo (short inputs allow fewer edits)
+    private static final int MAX_TYPO_DISTANCE = 2;
+    private static final int SHORT_INPUT_LENGTH = 4;
+
+    // Rescale stored scores once the epoch boost reaches e^this
+    private static final double RENORMALIZE_EXPONENT = 50;
+
+    // Trie image: header (magic, version, write time, query count), query
+    // table ([u16 len][chars][f64 score] each), then nodes in preorder:
+    // [u16 labelLen][label][u8 isEnd][i32 childCount][u8 topKCount][i32 queryId...]
+    private static final int IMAGE_MAGIC = 0x41435349; // "ACSI"
+    private static final int IMAGE_VERSION = 1;
+    private static final int IMAGE_BUFFER_BYTES = 1 << 18;
+
+    // Largest slice of a query log that one bulkLoad task counts
+    private static final long BULK_CHUNK_BYTES = 64L << 20;
+
+    // Store global frequency (written only under writeLock).
+    // Scores decay exponentially but are stored relative to epochStart:
+    // a search at time t adds e^(lambda * (t - epochStart)), and the decayed
+    // score is the stored value divided by the current boost. All entries
+    // decay by the same factor, so stored values rank exactly like decayed
+    // ones and nothing has to be rescanned as time passes.
+    static final class ScoreState {
+        final long epochStart;
+        final Map<String, Double> frequencies;
+
+        // Stored scores in ascending order, so entries that decayed below
+        // pruneThreshold are always at the front (null unless pruning is on)
+        final TreeSet<ScoredQuery> pruneOrder;
+
+        ScoreState(long epochStart, Map<String, Double> frequencies, TreeSet<ScoredQuery> pruneOrder) {
+            this.epochStart = epochStart;
+            this.frequencies = frequencies;
+            this.pruneOrder = pruneOrder;
+        }
+    }
+
+    // Epoch, map and prune order are replaced together by one volatile write
+    // (renormalize, rebuild), so a reader that reads this once never pairs a
+    // map with another epoch's scale
+    private volatile ScoreState state;
+
+    private final double decayRate;       // lambda per ms (0 = no decay)
+    private final double pruneThreshold;  // minimum decayed score to keep
+    private final LongSupplier clock;
+
+    // Rank by frequency (desc), then alphabetically for stable ties; used by
+    // writers, which hold writeLock
+    private final Comparator<String> ranking = (a, b) -> {
+        Map<String, Double> scores = state.frequencies;
+        int byFrequency = Double.compare(scores.get(b), scores.get(a));
+        return byFrequency != 0 ? byFrequency : a.compareTo(b);
+    };
+
+    static class ScoredQuery implements Comparable<ScoredQuery> {
+        final double score;
+        final String query;
+
+        ScoredQuery(double score, String query) {
+            this.score = score;
+            this.query = query;
+        }
+
+        public int compareTo(ScoredQuery other) {
+            int byScore = Double.compare(score, other.score);
+            return byScore != 0 ? byScore : query.compareTo(other.query);
+        }
+    }
+
+    // Without decay scores are whole counts; share their boxes the way
+    // Integer.valueOf does, so the frequency map costs no Double per query
+    private static final Double[] SMALL_COUNTS = new Double[1024];
+
+    static {
+        for (int i = 0; i < SMALL_COUNTS.length; i++) SMALL_COUNTS[i] = (double) i;
+    }
+
+    private static Double boxed(double score) {
+        int count = (int) score;
+        return count == score && count >= 0 && count < SMALL_COUNTS.length
+                ? SMALL_COUNTS[count] : Double.valueOf(score);
+    }
+
+    private static final char[] NO_CHARS = new char[0];
+    private static final TrieNode[] NO_CHILDREN = new TrieNode[0];
+    private static final String[] NO_QUERIES = new String[0];
+
+    // Radix trie node: single-child chains are collapsed into one edge label,
+    // and children live in sorted parallel arrays instead of a HashMap.
+    // Nodes are copy-on-write: once reachable from a published root they are
+    // never modified, so readers need no locking.
     static class TrieNode {
-        Map<Character, TrieNode> children = new HashMap<>();
+        final long version;               // write batch that created this node
+        char[] label = NO_CHARS;          // edge label from the parent
+        char[] childKeys = NO_CHARS;      // first char of each child's label, sorted
+        TrieNode[] children = NO_CHILDREN;
         boolean isEndOfWord = false;
+
+        // Best completions under this node, kept sorted by ranking
+        String[] topK = NO_QUERIES;
+
+        TrieNode(long version) {
+            this.version = version;
+        }
+
+        // Copy for a new write batch; children array is the only part
+        // updated in place, the other arrays are always replaced
+        TrieNode copy(long newVersion) {
+            TrieNode copy = new TrieNode(newVersion);
+            copy.label = label;
+            copy.childKeys = childKeys;
+            copy.children = children.clone();
+            copy.isEndOfWord = isEndOfWord;
+            copy.topK = topK;
+            return copy;
+        }
+
+        TrieNode child(char c) {
+            int index = Arrays.binarySearch(childKeys, c);
+            return index < 0 ? null : children[index];
+        }
+
+        void addChild(TrieNode child) {
+            int index = -Arrays.binarySearch(childKeys, child.label[0]) - 1;
+            int size = childKeys.length;
+
+            char[] keys = new char[size + 1];
+            TrieNode[] nodes = new TrieNode[size + 1];
+            System.arraycopy(childKeys, 0, keys, 0, index);
+            System.arraycopy(children, 0, nodes, 0, index);
+            keys[index] = child.label[0];
+            nodes[index] = child;
+            System.arraycopy(childKeys, index, keys, index + 1, size - index);
+            System.arraycopy(children, index, nodes, index + 1, size - index);
+
+            childKeys = keys;
+            children = nodes;
+        }
+
+        void removeChild(char key) {
+            int index = Arrays.binarySearch(childKeys, key);
+            int size = childKeys.length;
+
+            char[] keys = new char[size - 1];
+            TrieNode[] nodes = new TrieNode[size - 1];
+            System.arraycopy(childKeys, 0, keys, 0, index);
+            System.arraycopy(children, 0, nodes, 0, index);
+            System.arraycopy(childKeys, index + 1, keys, index, size - index - 1);
+            System.arraycopy(children, index + 1, nodes, index, size - index - 1);
+
+            childKeys = keys;
+            children = nodes;
+        }
     }
 
-    private TrieNode root;
+    // Published snapshot; readers load it once per lookup
+    private volatile TrieNode root;
+
+    // Serializes writers; writeVersion identifies the batch being built
+    private final Object writeLock = new Object();
+    private long writeVersion;
 
     public AutocompleteSystem() {
-        frequencyMap = new HashMap<>();
-        root = new TrieNode();
+        this(0, 0, System::currentTimeMillis);
+    }
+
+    // Decayed frequencies: a search loses half its weight every halfLifeMillis,
+    // and queries whose score falls below pruneThreshold are dropped
+    public AutocompleteSystem(long halfLifeMillis, double pruneThreshold) {
+        this(halfLifeMillis, pruneThreshold, System::currentTimeMillis);
+    }
+
+    AutocompleteSystem(long halfLifeMillis, double pruneThreshold, LongSupplier clock) {
+        this.decayRate = halfLifeMillis > 0 ? Math.log(2) / halfLifeMillis : 0;
+        this.pruneThreshold = pruneThreshold;
+        this.clock = clock;
+        state = new ScoreState(clock.getAsLong(), new ConcurrentHashMap<>(),
+                pruneThreshold > 0 ? new TreeSet<>() : null);
+        root = new TrieNode(0);
+    }
+
+    // Weight of one search made now, in the state's stored units
+    private double boost(ScoreState scores, long now) {
+        return decayRate == 0 ? 1 : Math.exp(decayRate * (now - scores.epochStart));
     }
 
-    // Insert query into Trie
-    private void insertIntoTrie(String query) {
-        TrieNode current = root;
-        for (char c : query.toCharArray()) {
-            current = current.children.computeIfAbsent(c, k -> new TrieNode());
+    // Current decayed score of a query (0 if unknown or pruned)
+    public double getScore(String query) {
+        ScoreState scores = state;
+        Double stored = scores.frequencies.get(query);
+        return stored == null ? 0 : stored / boost(scores, clock.getAsLong());
+    }
+
+    // Node owned by the current write batch (copied if it may be visible)
+    private TrieNode mutable(TrieNode node) {
+        return node.version == writeVersion ? node : node.copy(writeVersion);
+    }
+
+    // Insert query into the batch's working trie, refreshing top-K along its path
+    private void insertIntoTrie(TrieNode workingRoot, String query) {
+        TrieNode current = workingRoot;
+        updateTopK(current, query);
+
+        int i = 0;
+        while (i < query.length()) {
+            int index = Arrays.binarySearch(current.childKeys, query.charAt(i));
+
+            if (index < 0) {
+                // New leaf takes the whole remaining suffix as its label
+                TrieNode leaf = new TrieNode(writeVersion);
+                leaf.label = query.substring(i).toCharArray();
+                leaf.isEndOfWord = true;
+                leaf.topK = new String[]{query};
+                current.addChild(leaf);
+                return;
+            }
+
+            TrieNode child = mutable(current.children[index]);
+            current.children[index] = child;
+
+            int common = commonPrefixLength(child.label, query, i);
+            if (common < child.label.length) {
+                child = splitEdge(current, index, child, common);
+            }
+
+            updateTopK(child, query);
+            current = child;
+            i += common;
         }
         current.isEndOfWord = true;
     }
 
+    private static int commonPrefixLength(char[] label, String query, int offset) {
+        int max = Math.min(label.length, query.length() - offset);
+        int n = 0;
+        while (n < max && label[n] == query.charAt(offset + n)) {
+            n++;
+        }
+        return n;
+    }
+
+    // Split child's edge after `at` chars; the new middle node inherits
+    // child's top-K since it has exactly the same completions
+    private TrieNode splitEdge(TrieNode parent, int index, TrieNode child, int at) {
+        TrieNode middle = new TrieNode(writeVersion);
+        middle.label = Arrays.copyOfRange(child.label, 0, at);
+        middle.topK = child.topK;
+
+        child.label = Arrays.copyOfRange(child.label, at, child.label.length);
+        middle.childKeys = new char[]{child.label[0]};
+        middle.children = new TrieNode[]{child};
+
+        parent.children[index] = middle;
+        return middle;
+    }
+
+    // Stored scores only grow, so a node's top-K can only change by this
+    // query moving up or displacing the current last entry
+    private void updateTopK(TrieNode node, String query) {
+        String[] top = node.topK;
+        int index = -1;
+        for (int i = 0; i < top.length; i++) {
+            if (top[i].equals(query)) {
+                index = i;
+                break;
+            }
+        }
+
+        if (index < 0 && top.length == TOP_K
+                && ranking.compare(query, top[TOP_K - 1]) > 0) {
+            return;
+        }
+
+        List<String> updated = new ArrayList<>(top.length + 1);
+        for (int i = 0; i < top.length; i++) {
+            if (i != index) {
+                updated.add(top[i]);
+            }
+        }
+
+        int position = 0;
+        while (position < updated.size() && ranking.compare(updated.get(position), query) < 0) {
+            position++;
+        }
+        updated.add(position, query);
+
+        if (updated.size() > TOP_K) {
+            updated.remove(TOP_K);
+        }
+        node.topK = updated.toArray(NO_QUERIES);
+    }
+
     // Add or update frequency
     public void updateFrequency(String query) {
-        frequencyMap.put(query, frequencyMap.getOrDefault(query, 0) + 1);
-        insertIntoTrie(query);
+        updateFrequencies(Collections.singletonList(query));
+    }
+
+    // Apply a batch of updates and publish them as one new snapshot;
+    // nodes touched more than once in the batch are copied only once
+    public void updateFrequencies(Collection<String> queries) {
+        synchronized (writeLock) {
+            writeVersion++;
+            TrieNode workingRoot = mutable(root);
+            long now = clock.getAsLong();
+
+            if (decayRate * (now - state.epochStart) > RENORMALIZE_EXPONENT) {
+                renormalize(now);
+            }
+            ScoreState scores = state;
+            double weight = boost(scores, now);
+
+            for (String query : queries) {
+                Double previous = scores.frequencies.get(query);
+                double score = (previous == null ? 0 : previous) + weight;
+                scores.frequencies.put(query, boxed(score));
+                if (scores.pruneOrder != null) {
+                    if (previous != null) {
+                        scores.pruneOrder.remove(new ScoredQuery(previous, query));
+                    }
+                    scores.pruneOrder.add(new ScoredQuery(score, query));
+                }
+                insertIntoTrie(workingRoot, query);
+            }
+
+            if (pruneThreshold > 0) {
+                pruneBelow(workingRoot, pruneThreshold * weight);
+            }
+            root = workingRoot;
+        }
+    }
+
+    // Move the epoch to now so stored scores stay in double range; order is
+    // unchanged, so the trie's top-K lists stay valid. Rare (every
+    // RENORMALIZE_EXPONENT / lambda ms) and builds a new state so readers
+    // never see a mix of scales.
+    private void renormalize(long now) {
+        ScoreState current = state;
+        double factor = boost(current, now);
+        Map<String, Double> rescaled = new ConcurrentHashMap<>(current.frequencies.size() * 2);
+        current.frequencies.forEach((query, score) -> rescaled.put(query, score / factor));
+        state = new ScoreState(now, rescaled, pruneOrderOf(rescaled));
+    }
+
+    // Prune order for the given scores, or null when pruning is off
+    private TreeSet<ScoredQuery> pruneOrderOf(Map<String, Double> scores) {
+        if (pruneThreshold <= 0) {
+            return null;
+        }
+        TreeSet<ScoredQuery> index = new TreeSet<>();
+        scores.forEach((query, score) -> index.add(new ScoredQuery(score, query)));
+        return index;
+    }
+
+    // Drop the lowest-scored queries while they are under the cutoff
+    private void pruneBelow(TrieNode workingRoot, double storedCutoff) {
+        ScoreState scores = state;
+        while (!scores.pruneOrder.isEmpty() && scores.pruneOrder.first().score < storedCutoff) {
+            String query = scores.pruneOrder.pollFirst().query;
+            scores.frequencies.remove(query);
+            removeFromTrie(workingRoot, query);
+        }
+    }
+
+    // Unmark the query, drop nodes left empty and rebuild the top-K lists
+    // it appeared in from the children's lists
+    private void removeFromTrie(TrieNode workingRoot, String query) {
+        List<TrieNode> path = new ArrayList<>();
+        List<Integer> pathEnds = new ArrayList<>();
+        TrieNode current = workingRoot;
+        path.add(current);
+        pathEnds.add(0);
+
+        int i = 0;
+        while (i < query.length()) {
+            int index = Arrays.binarySearch(current.childKeys, query.charAt(i));
+            if (index < 0) {
+                return;
+            }
+            TrieNode child = current.children[index];
+            int common = commonPrefixLength(child.label, query, i);
+            if (common < child.label.length) {
+                return;
+            }
+
+            child = mutable(child);
+            current.children[index] = child;
+            current = child;
+            i += common;
+            path.add(current);
+            pathEnds.add(i);
+        }
+
+        if (!current.isEndOfWord) {
+            return;
+        }
+        current.isEndOfWord = false;
+
+        for (int d = path.size() - 1; d >= 0; d--) {
+            TrieNode node = path.get(d);
+            if (d > 0 && node.children.length == 0 && !node.isEndOfWord) {
+                path.get(d - 1).removeChild(node.label[0]);
+                continue;
+            }
+            if (Arrays.asList(node.topK).contains(query)) {
+                node.topK = rebuildTopK(node, query.substring(0, pathEnds.get(d)));
+            }
+        }
+    }
+
+    private String[] rebuildTopK(TrieNode node, String nodePath) {
+        List<String> candidates = new ArrayList<>();
+        if (node.isEndOfWord) {
+            candidates.add(nodePath);
+        }
+        for (TrieNode child : node.children) {
+            candidates.addAll(Arrays.asList(child.topK));
+        }
+        candidates.sort(ranking);
+        return candidates.subList(0, Math.min(TOP_K, candidates.size())).toArray(NO_QUERIES);
+    }
+
+    // Bulk load a query log (one query per line): counts are aggregated in
+    // parallel, merged with the current scores, and the trie is built bottom-up
+    // from the sorted queries in one pass instead of one updateFrequency per line
+    public void bulkLoad(Path queryLog) throws IOException {
+        Map<String, int[]> counts = countLines(queryLog);
+
+        synchronized (writeLock) {
+            ScoreState current = state;
+            double weight = boost(current, clock.getAsLong());
+            Map<String, Double> scores = new ConcurrentHashMap<>(
+                    (current.frequencies.size() + counts.size()) * 2);
+            scores.putAll(current.frequencies);
+            counts.forEach((query, count) ->
+                    scores.merge(query, boxed(count[0] * weight), (a, b) -> boxed(a + b)));
+            rebuild(scores);
+        }
+    }
+
+    // Count the non-empty lines of a UTF-8 file. The file is split at line
+    // breaks into one chunk per core (at most BULK_CHUNK_BYTES each); every
+    // chunk is counted into its own map, and the maps are merged at the end.
+    // Lines end at \n or \r\n; malformed bytes are replaced.
+    static Map<String, int[]> countLines(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            int chunks = (int) Math.max(Runtime.getRuntime().availableProcessors(),
+                    (size + BULK_CHUNK_BYTES - 1) / BULK_CHUNK_BYTES);
+            long[] starts = new long[chunks + 1];
+            starts[chunks] = size;
+            for (int c = 1; c < chunks; c++) {
+                starts[c] = lineStart(channel, Math.max(starts[c - 1], size * c / chunks));
+            }
+
+            List<Map<String, int[]>> partials;
+            try {
+                partials = IntStream.range(0, chunks).parallel()
+                        .mapToObj(c -> countChunk(channel, starts[c], starts[c + 1]))
+                        .collect(Collectors.toList());
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+
+            Map<String, int[]> counts = partials.get(0);
+            for (Map<String, int[]> partial : partials) {
+                if (partial.size() > counts.size()) counts = partial;
+            }
+            for (Map<String, int[]> partial : partials) {
+                if (partial == counts) continue;
+                Map<String, int[]> into = counts;
+                partial.forEach((line, count) -> into.merge(line, count, (a, b) -> {
+                    a[0] += b[0];
+                    return a;
+                }));
+            }
+            return counts;
+        }
+    }
+
+    // First position at or after from that starts a line
+    private static long lineStart(FileChannel channel, long from) throws IOException {
+        if (from == 0) return 0;
+        ByteBuffer buffer = ByteBuffer.allocate(8192);
+        long position = from - 1;   // from itself starts a line if the byte before is \n
+        while (position < channel.size()) {
+            buffer.clear();
+            int read = channel.read(buffer, position);
+            if (read <= 0) break;
+            for (int i = 0; i < read; i++) {
+                if (buffer.get(i) == '\n') return position + i + 1;
+            }
+            position += read;
+        }
+        return channel.size();
+    }
+
+    private static Map<String, int[]> countChunk(FileChannel channel, long start, long end) {
+        Map<String, int[]> counts = new HashMap<>();
+        if (start == end) return counts;
+        MappedByteBuffer bytes;
+        try {
+            bytes = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        byte[] line = new byte[256];
+        int length = 0;
+        while (true) {
+            boolean more = bytes.hasRemaining();
+            byte b = more ? bytes.get() : (byte) '\n';
+            if (b != '\n') {
+                if (length == line.length) line = Arrays.copyOf(line, length * 2);
+                line[length++] = b;
+                continue;
+            }
+            int trimmed = length > 0 && line[length - 1] == '\r' ? length - 1 : length;
+            if (trimmed > 0) {
+                counts.computeIfAbsent(new String(line, 0, trimmed, StandardCharsets.UTF_8),
+                        q -> new int[1])[0]++;
+            }
+            length = 0;
+            if (!more) return counts;
+        }
+    }
+
+    // Replace all contents with the given stored scores; caller holds writeLock
+    private void rebuild(Map<String, Double> scores) {
+        writeVersion++;
+
+        ScoreState next = new ScoreState(state.epochStart, scores, pruneOrderOf(scores));
+        state = next;
+
+        String[] sorted = scores.keySet().toArray(NO_QUERIES);
+        Arrays.sort(sorted);
+        TrieNode newRoot = sorted.length == 0
+                ? new TrieNode(writeVersion)
+                : new SortedBuilder(sorted, scores, writeVersion).build(0, sorted.length, 0, 0);
+
+        if (pruneThreshold > 0) {
+            pruneBelow(newRoot, pruneThreshold * boost(next, clock.getAsLong()));
+        }
+        root = newRoot;
+    }
+
+    // Bottom-up trie construction over sorted queries. Top-K lists are
+    // merged from the children's as query ids (positions in sorted, so id
+    // order is alphabetical order) ranked against a score array, with no
+    // map lookups or per-insert top-K upkeep.
+    private static class SortedBuilder {
+        final String[] sorted;
+        final double[] scores;
+        final long version;
+        int[] lastTopK; // top-K ids of the node build() just returned
+
+        SortedBuilder(String[] sorted, Map<String, Double> scoreMap, long version) {
+            this.sorted = sorted;
+            this.version = version;
+            this.scores = new double[sorted.length];
+            for (int i = 0; i < sorted.length; i++) {
+                scores[i] = scoreMap.get(sorted[i]);
+            }
+        }
+
+        // Build the subtree for sorted[lo, hi), which all share their first
+        // depth chars; the node's edge label is chars [labelStart, depth)
+        TrieNode build(int lo, int hi, int labelStart, int depth) {
+            TrieNode node = new TrieNode(version);
+            if (depth > labelStart) {
+                node.label = new char[depth - labelStart];
+                sorted[lo].getChars(labelStart, depth, node.label, 0);
+            }
+
+            int[] top = new int[TOP_K];
+            int size = 0;
+            if (sorted[lo].length() == depth) {
+                node.isEndOfWord = true;
+                top[size++] = lo;
+                lo++;
+            }
+
+            // One child per distinct next char; count them to size the arrays
+            int childCount = 0;
+            for (int i = lo; i < hi; i++) {
+                if (i == lo || sorted[i].charAt(depth) != sorted[i - 1].charAt(depth)) {
+                    childCount++;
+                }
+            }
+            node.childKeys = new char[childCount];
+            node.children = new TrieNode[childCount];
+
+            int start = lo;
+            for (int index = 0; index < childCount; index++) {
+                char c = sorted[start].charAt(depth);
+                int end = start + 1;
+                while (end < hi && sorted[end].charAt(depth) == c) {
+                    end++;
+                }
+
+                // Sorted, so the group's common prefix is that of its first and last
+                String first = sorted[start];
+                String last = sorted[end - 1];
+                int childDepth = depth + 1;
+                while (childDepth < first.length() && childDepth < last.length()
+                        && first.charAt(childDepth) == last.charAt(childDepth)) {
+                    childDepth++;
+                }
+
+                node.childKeys[index] = c;
+                node.children[index] = build(start, end, depth, childDepth);
+                // Child lists are ranked, so stop at the first that misses the cut
+                for (int id : lastTopK) {
+                    if (size == TOP_K && !ranksBefore(id, top[TOP_K - 1])) {
+                        break;
+                    }
+                    size = insert(top, size, id);
+                }
+                start = end;
+            }
+
+            node.topK = new String[size];
+            for (int i = 0; i < size; i++) {
+                node.topK[i] = sorted[top[i]];
+            }
+            lastTopK = size == TOP_K ? top : Arrays.copyOf(top, size);
+            return node;
+        }
+
+        // Higher score first, then alphabetical
+        private boolean ranksBefore(int a, int b) {
+            return scores[a] != scores[b] ? scores[a] > scores[b] : a < b;
+        }
+
+        // Insert id into the ranked list top[0, size), dropping past TOP_K
+        private int insert(int[] top, int size, int id) {
+            int position = Math.min(size, TOP_K - 1);
+            while (position > 0 && ranksBefore(id, top[position - 1])) {
+                top[position] = top[position - 1];
+                position--;
+            }
+            top[position] = id;
+            return Math.min(size + 1, TOP_K);
+        }
+    }
+
+    // Write the current trie, top-K lists and scores as a binary image
+    public void writeImage(Path file) throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+
+        synchronized (writeLock) {
+            long now = clock.getAsLong();
+            ScoreState scores = state;
+            double currentBoost = boost(scores, now);
+            Map<String, Integer> queryIds = new HashMap<>(scores.frequencies.size() * 2);
+            ByteBuffer buffer = ByteBuffer.allocate(IMAGE_BUFFER_BYTES);
+
+            try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                buffer.putInt(IMAGE_MAGIC).putInt(IMAGE_VERSION)
+                        .putLong(now).putInt(scores.frequencies.size());
+
+                for (Map.Entry<String, Double> entry : scores.frequencies.entrySet()) {
+                    String query = entry.getKey();
+                    checkLength(query.length());
+                    ensureRoom(channel, buffer, 2 + query.length() * 2 + 8);
+                    buffer.putShort((short) query.length());
+                    for (int i = 0; i < query.length(); i++) {
+                        buffer.putChar(query.charAt(i));
+                    }
+                    buffer.putDouble(entry.getValue() / currentBoost);
+                    queryIds.put(query, queryIds.size());
+                }
+
+                writeNode(channel, buffer, root, queryIds);
+                flush(channel, buffer);
+                channel.force(false);
+            }
+        }
+
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void writeNode(FileChannel channel, ByteBuffer buffer, TrieNode node,
+                                  Map<String, Integer> queryIds) throws IOException {
+        checkLength(node.label.length);
+        ensureRoom(channel, buffer, 2 + node.label.length * 2 + 1 + 4 + 1 + node.topK.length * 4);
+
+        buffer.putShort((short) node.label.length);
+        for (char c : node.label) {
+            buffer.putChar(c);
+        }
+        buffer.put((byte) (node.isEndOfWord ? 1 : 0));
+        buffer.putInt(node.children.length);
+        buffer.put((byte) node.topK.length);
+        for (String query : node.topK) {
+            buffer.putInt(queryIds.get(query));
+        }
+
+        for (TrieNode child : node.children) {
+            writeNode(channel, buffer, child, queryIds);
+        }
+    }
+
+    private static void checkLength(int length) throws IOException {
+        if (length > 0xFFFF) {
+            throw new IOException("Query too long for trie image: " + length + " chars");
+        }
+    }
+
+    private static void ensureRoom(FileChannel channel, ByteBuffer buffer, int bytes)
+            throws IOException {
+        if (buffer.remaining() < bytes) {
+            flush(channel, buffer);
+        }
+    }
+
+    private static void flush(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    // Replace all contents with a trie image. The file is read once,
+    // sequentially through one buffer, and decoded into heap nodes: nodes and
+    // top-K lists come back as stored, with no ranking or per-query insertion.
+    // Scores keep decaying for the time the image sat on disk.
+    public void loadImage(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ImageReader image = new ImageReader(channel);
+
+            try {
+                if (image.need(20).getInt() != IMAGE_MAGIC || image.buffer.getInt() != IMAGE_VERSION) {
+                    throw new IOException("Not an autocomplete trie image: " + file);
+                }
+            } catch (BufferUnderflowException e) {
+                throw new IOException("Not an autocomplete trie image: " + file, e);
+            }
+
+            synchronized (writeLock) {
+                long writtenAt = image.buffer.getLong();
+                long now = clock.getAsLong();
+                ScoreState current = state;
+                double scale = boost(current, now) * Math.exp(-decayRate * (now - writtenAt));
+
+                try {
+                    String[] queries = new String[image.buffer.getInt()];
+                    Map<String, Double> scores = new ConcurrentHashMap<>(queries.length * 2);
+                    char[] scratch = new char[256];
+
+                    for (int id = 0; id < queries.length; id++) {
+                        int length = Short.toUnsignedInt(image.need(2).getShort());
+                        if (scratch.length < length) scratch = new char[length];
+                        ByteBuffer buffer = image.need(length * 2 + 8);
+                        for (int i = 0; i < length; i++) {
+                            scratch[i] = buffer.getChar();
+                        }
+                        queries[id] = new String(scratch, 0, length);
+
+                        double score = buffer.getDouble() * scale;
+                        scores.put(queries[id], score);
+                    }
+
+                    writeVersion++;
+                    TrieNode newRoot = readNode(image, queries);
+                    state = new ScoreState(current.epochStart, scores, pruneOrderOf(scores));
+                    if (pruneThreshold > 0) {
+                        pruneBelow(newRoot, pruneThreshold * boost(current, now));
+                    }
+                    root = newRoot;
+                } catch (BufferUnderflowException | IndexOutOfBoundsException
+                         | NegativeArraySizeException e) {
+                    throw new IOException("Corrupt autocomplete trie image: " + file, e);
+                }
+            }
+        }
     }
 
-    // Search prefix
+    // Sequential reader over a trie image, refilling one buffer the way
+    // writeImage drains one
+    private static final class ImageReader {
+        final FileChannel channel;
+        final ByteBuffer buffer = ByteBuffer.allocate(IMAGE_BUFFER_BYTES);
+
+        ImageReader(FileChannel channel) {
+            this.channel = channel;
+            buffer.flip();
+        }
+
+        // The buffer, holding at least bytes unread bytes
+        ByteBuffer need(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) {
+                buffer.compact();
+                while (buffer.position() < bytes) {
+                    if (channel.read(buffer) < 0) {
+                        throw new BufferUnderflowException();
+                    }
+                }
+                buffer.flip();
+            }
+            return buffer;
+        }
+    }
+
+    private TrieNode readNode(ImageReader image, String[] queries) throws IOException {
+        TrieNode node = new TrieNode(writeVersion);
+
+        int labelLength = Short.toUnsignedInt(image.need(2).getShort());
+        ByteBuffer buffer = image.need(labelLength * 2 + 1 + 4 + 1);
+        if (labelLength > 0) {
+            node.label = new char[labelLength];
+            for (int i = 0; i < labelLength; i++) {
+                node.label[i] = buffer.getChar();
+            }
+        }
+        node.isEndOfWord = buffer.get() != 0;
+
+        int childCount = buffer.getInt();
+        int topKCount = Byte.toUnsignedInt(buffer.get());
+        buffer = image.need(topKCount * 4);
+        node.topK = new String[topKCount];
+        for (int i = 0; i < topKCount; i++) {
+            node.topK[i] = queries[buffer.getInt()];
+        }
+
+        if (childCount > 0) {
+            node.childKeys = new char[childCount];
+            node.children = new TrieNode[childCount];
+            for (int i = 0; i < childCount; i++) {
+                node.children[i] = readNode(image, queries);
+                node.childKeys[i] = node.children[i].label[0];
+            }
+        }
+        return node;
+    }
+
+    // Search prefix: O(prefix length + K) using the node's precomputed top-K
     public List<String> search(String prefix) {
-        TrieNode node = root;
+        TrieNode node = findNode(prefix, null);
+        return node == null ? Collections.emptyList() : new ArrayList<>(Arrays.asList(node.topK));
+    }
 
-        for (char c : prefix.toCharArray()) {
-            if (!node.children.containsKey(c)) {
-                return Collections.emptyList();
+    // Node covering the prefix (the prefix may end inside its edge label);
+    // if path is given, the node's full path is appended to it
+    private TrieNode findNode(String prefix, StringBuilder path) {
+        TrieNode node = root; // single volatile read: one consistent snapshot
+        int i = 0;
+
+        while (i < prefix.length()) {
+            TrieNode child = node.child(prefix.charAt(i));
+            if (child == null) {
+                return null;
+            }
+
+            int matched = commonPrefixLength(child.label, prefix, i);
+            if (matched < Math.min(child.label.length, prefix.length() - i)) {
+                return null;
             }
-            node = node.children.get(c);
+            if (path != null) {
+                path.append(child.label);
+            }
+            node = child;
+            i += matched;
+        }
+        return node;
+    }
+
+    // Reference search: collect the whole subtree, then heap (benchmark baseline)
+    List<String> searchByDfs(String prefix) {
+        StringBuilder path = new StringBuilder();
+        TrieNode node = findNode(prefix, path);
+        if (node == null) {
+            return Collections.emptyList();
         }
 
         List<String> results = new ArrayList<>();
-        dfs(node, new StringBuilder(prefix), results);
+        dfs(node, path, results);
 
         // Get Top 10 using Min-Heap
-        PriorityQueue<String> minHeap =
-                new PriorityQueue<>((a, b) ->
-                        frequencyMap.get(a) - frequencyMap.get(b));
+        PriorityQueue<String> minHeap = new PriorityQueue<>(ranking.reversed());
 
         for (String result : results) {
             minHeap.offer(result);
-            if (minHeap.size() > 10) {
+            if (minHeap.size() > TOP_K) {
                 minHeap.poll();
             }
         }
 
         List<String> topResults = new ArrayList<>(minHeap);
-        topResults.sort((a, b) ->
-                frequencyMap.get(b) - frequencyMap.get(a));
+        topResults.sort(ranking);
 
         return topResults;
     }
@@ -72,24 +924,329 @@ public class AutocompleteSystem {
             results.add(path.toString());
         }
 
-        for (Map.Entry<Character, TrieNode> entry : node.children.entrySet()) {
-            path.append(entry.getKey());
-            dfs(entry.getValue(), path, results);
-            path.deleteCharAt(path.length() - 1);
+        for (TrieNode child : node.children) {
+            path.append(child.label);
+            dfs(child, path, results);
+            path.setLength(path.length() - child.label.length);
         }
     }
 
-    // Basic typo suggestion (edit distance 1: remove last char)
+    // Typo-tolerant suggestions: up to 1 edit for short inputs, 2 otherwise
     public List<String> suggestWithTypo(String input) {
-        List<String> results = search(input);
+        int maxDistance = input.length() <= SHORT_INPUT_LENGTH ? 1 : MAX_TYPO_DISTANCE;
+        return fuzzySearch(input, maxDistance);
+    }
+
+    // Completions whose prefix is within maxDistance edits of the input
+    // (insert, delete, substitute, adjacent transposition), ranked by
+    // distance, then frequency. Expands trie nodes best-first by (lowest
+    // distance still reachable, best score below the node), so it can stop
+    // as soon as no unexpanded node can beat the current K-th result.
+    public List<String> fuzzySearch(String input, int maxDistance) {
+        Map<String, Double> scores = state.frequencies; // one scale for the whole search
+        FuzzyFrontier search = new FuzzyFrontier(input, maxDistance, scores);
+        return search.run(root);
+    }
+
+    // Best-first fuzzy search state. Each frontier entry is a node whose
+    // path has been matched against the input, with the last two DP rows.
+    private static class FuzzyFrontier {
+        final String input;
+        final int maxDistance;
+        final int maxDepth;
+        final Map<String, Double> scores;
 
-        if (!results.isEmpty()) return results;
+        final PriorityQueue<FuzzyState> frontier = new PriorityQueue<>();
 
-        if (input.length() > 1) {
-            return search(input.substring(0, input.length() - 1));
+        // Current top-K by (distance, score desc, query) and their distances
+        final TreeSet<FuzzyResult> best = new TreeSet<>();
+        final Map<String, FuzzyResult> bestByQuery = new HashMap<>();
+
+        FuzzyFrontier(String input, int maxDistance, Map<String, Double> scores) {
+            this.input = input;
+            this.maxDistance = maxDistance;
+            // Paths longer than input + maxDistance can never come back in range
+            this.maxDepth = input.length() + maxDistance;
+            this.scores = scores;
+        }
+
+        List<String> run(TrieNode root) {
+            int[] first = new int[input.length() + 1];
+            for (int j = 0; j <= input.length(); j++) {
+                first[j] = j;
+            }
+            frontier.add(new FuzzyState(root, 0, null, first, (char) 0, 0, Double.MAX_VALUE));
+
+            while (!frontier.isEmpty()) {
+                FuzzyState state = frontier.poll();
+                if (cannotImprove(state)) {
+                    break;
+                }
+                for (TrieNode child : state.node.children) {
+                    expand(state, child);
+                }
+            }
+
+            List<String> results = new ArrayList<>(best.size());
+            for (FuzzyResult result : best) {
+                results.add(result.query);
+            }
+            return results;
+        }
+
+        // Every completion below the state ranks at or after its key
+        private boolean cannotImprove(FuzzyState state) {
+            if (best.size() < TOP_K) {
+                return false;
+            }
+            FuzzyResult last = best.last();
+            return state.lowerBound > last.distance
+                    || (state.lowerBound == last.distance && state.bestScore < last.score);
         }
 
-        return Collections.emptyList();
+        // Walk the child's edge label; every position along it shares the
+        // child's completions
+        private void expand(FuzzyState state, TrieNode child) {
+            int depth = state.depth;
+            int[] previous = state.previous;
+            int[] row = state.row;
+            char last = state.lastChar;
+
+            for (char c : child.label) {
+                if (depth == maxDepth) {
+                    return;
+                }
+                int[] next = advance(previous, row, depth, last, c);
+                if (next == null) {
+                    return;
+                }
+                previous = row;
+                row = next;
+                last = c;
+                depth++;
+
+                int distance = row[input.length()];
+                if (distance <= maxDistance) {
+                    // topK is in score order: after the first query that can't
+                    // make the cut, only current results can still improve
+                    boolean rejected = false;
+                    for (String query : child.topK) {
+                        if (!rejected || bestByQuery.containsKey(query)) {
+                            rejected |= !offer(query, distance);
+                        }
+                    }
+                }
+            }
+
+            if (child.children.length > 0 && depth < maxDepth) {
+                // A later row can go at most one below the previous row's
+                // minimum (transposition), never below the current one's
+                int lowerBound = Math.min(min(row), previous == null ? Integer.MAX_VALUE : min(previous) + 1);
+                if (lowerBound <= maxDistance) {
+                    frontier.add(new FuzzyState(child, depth, previous, row, last, lowerBound,
+                            scoreOf(child.topK[0])));
+                }
+            }
+        }
+
+        // False if the query is not a result and ranks after the K-th one
+        private boolean offer(String query, int distance) {
+            FuzzyResult existing = bestByQuery.get(query);
+            if (existing != null) {
+                if (existing.distance > distance) {
+                    best.remove(existing);
+                    add(new FuzzyResult(query, distance, existing.score));
+                }
+                return true;
+            }
+            if (best.size() == TOP_K && distance > best.last().distance) {
+                return false;
+            }
+
+            FuzzyResult result = new FuzzyResult(query, distance, scoreOf(query));
+            if (best.size() == TOP_K && result.compareTo(best.last()) > 0) {
+                return false;
+            }
+            add(result);
+            return true;
+        }
+
+        private void add(FuzzyResult result) {
+            best.add(result);
+            bestByQuery.put(result.query, result);
+            if (best.size() > TOP_K) {
+                bestByQuery.remove(best.pollLast().query);
+            }
+        }
+
+        private double scoreOf(String query) {
+            return scores.getOrDefault(query, 0.0);
+        }
+
+        // Row for path + c (OSA); null if every cell exceeds maxDistance
+        private int[] advance(int[] previous, int[] row, int depth, char last, char c) {
+            int[] next = new int[input.length() + 1];
+            next[0] = depth + 1;
+            int rowMin = next[0];
+
+            for (int j = 1; j <= input.length(); j++) {
+                int cost = input.charAt(j - 1) == c ? 0 : 1;
+                int value = Math.min(Math.min(next[j - 1] + 1, row[j] + 1), row[j - 1] + cost);
+
+                if (depth > 0 && j > 1
+                        && input.charAt(j - 1) == last
+                        && input.charAt(j - 2) == c) {
+                    value = Math.min(value, previous[j - 2] + 1);
+                }
+                next[j] = value;
+                rowMin = Math.min(rowMin, value);
+            }
+            return rowMin <= maxDistance ? next : null;
+        }
+
+        private static int min(int[] row) {
+            int min = Integer.MAX_VALUE;
+            for (int value : row) {
+                min = Math.min(min, value);
+            }
+            return min;
+        }
+    }
+
+    // Frontier node, ordered by lowest reachable distance, then best score
+    private static class FuzzyState implements Comparable<FuzzyState> {
+        final TrieNode node;
+        final int depth;
+        final int[] previous; // DP row for the path minus its last char
+        final int[] row;      // DP row for the node's full path
+        final char lastChar;
+        final int lowerBound;
+        final double bestScore;
+
+        FuzzyState(TrieNode node, int depth, int[] previous, int[] row, char lastChar,
+                   int lowerBound, double bestScore) {
+            this.node = node;
+            this.depth = depth;
+            this.previous = previous;
+            this.row = row;
+            this.lastChar = lastChar;
+            this.lowerBound = lowerBound;
+            this.bestScore = bestScore;
+        }
+
+        public int compareTo(FuzzyState other) {
+            int byBound = Integer.compare(lowerBound, other.lowerBound);
+            return byBound != 0 ? byBound : Double.compare(other.bestScore, bestScore);
+        }
+    }
+
+    private static class FuzzyResult implements Comparable<FuzzyResult> {
+        final String query;
+        final int distance;
+        final double score;
+
+        FuzzyResult(String query, int distance, double score) {
+            this.query = query;
+            this.distance = distance;
+            this.score = score;
+        }
+
+        public int compareTo(FuzzyResult other) {
+            int byDistance = Integer.compare(distance, other.distance);
+            if (byDistance != 0) return byDistance;
+            int byScore = Double.compare(other.score, score);
+            return byScore != 0 ? byScore : query.compareTo(other.query);
+        }
+    }
+
+    // Reference fuzzy search: walks every branch within range (benchmark baseline)
+    List<String> fuzzySearchByWalk(String input, int maxDistance) {
+        FuzzyWalk walk = new FuzzyWalk(input, maxDistance);
+        walk.visitChildren(root, 0);
+
+        List<String> candidates = new ArrayList<>(walk.bestDistance.keySet());
+        Map<String, Double> scores = state.frequencies; // one scale for the whole sort
+        candidates.sort((a, b) -> {
+            int byDistance = Integer.compare(walk.bestDistance.get(a), walk.bestDistance.get(b));
+            if (byDistance != 0) return byDistance;
+            int byFrequency = Double.compare(
+                    scores.getOrDefault(b, 0.0), scores.getOrDefault(a, 0.0));
+            return byFrequency != 0 ? byFrequency : a.compareTo(b);
+        });
+        return candidates.size() > TOP_K
+                ? new ArrayList<>(candidates.subList(0, TOP_K))
+                : candidates;
+    }
+
+    // Optimal-string-alignment distance between the input and the current
+    // trie path; row d holds distances for a path of length d
+    private static class FuzzyWalk {
+        final String input;
+        final int maxDistance;
+        final int[][] rows;
+        final char[] path;
+        final Map<String, Integer> bestDistance = new HashMap<>();
+
+        FuzzyWalk(String input, int maxDistance) {
+            this.input = input;
+            this.maxDistance = maxDistance;
+
+            // Paths longer than input + maxDistance can never come back in range
+            int maxDepth = input.length() + maxDistance;
+            this.rows = new int[maxDepth + 1][input.length() + 1];
+            this.path = new char[maxDepth];
+            for (int j = 0; j <= input.length(); j++) {
+                rows[0][j] = j;
+            }
+        }
+
+        void visitChildren(TrieNode node, int depth) {
+            for (TrieNode child : node.children) {
+                visitEdge(child, depth);
+            }
+        }
+
+        // Every position along the edge shares the child's completions
+        void visitEdge(TrieNode child, int depth) {
+            for (char c : child.label) {
+                if (depth == path.length || !advance(depth, c)) {
+                    return;
+                }
+                depth++;
+
+                int distance = rows[depth][input.length()];
+                if (distance <= maxDistance) {
+                    for (String query : child.topK) {
+                        bestDistance.merge(query, distance, Math::min);
+                    }
+                }
+            }
+            visitChildren(child, depth);
+        }
+
+        // Fill rows[depth + 1] for path + c; false if the branch can be pruned
+        private boolean advance(int depth, char c) {
+            path[depth] = c;
+            int[] previous = rows[depth];
+            int[] current = rows[depth + 1];
+            current[0] = depth + 1;
+            int rowMin = current[0];
+
+            for (int j = 1; j <= input.length(); j++) {
+                int cost = input.charAt(j - 1) == c ? 0 : 1;
+                int value = Math.min(Math.min(current[j - 1] + 1, previous[j] + 1),
+                        previous[j - 1] + cost);
+
+                if (depth > 0 && j > 1
+                        && input.charAt(j - 1) == path[depth - 1]
+                        && input.charAt(j - 2) == c) {
+                    value = Math.min(value, rows[depth - 1][j - 2] + 1);
+                }
+                current[j] = value;
+                rowMin = Math.min(rowMin, value);
+            }
+            return rowMin <= maxDistance;
+        }
     }
 
     // Main for testing
@@ -110,13 +1267,350 @@ public class AutocompleteSystem {
         int rank = 1;
         for (String res : results) {
             System.out.println(rank++ + ". " + res +
-                    " (" + system.frequencyMap.get(res) + " searches)");
+                    " (" + Math.round(system.getScore(res)) + " searches)");
         }
 
         System.out.println("\nUpdating frequency for 'java 21 features'");
         system.updateFrequency("java 21 features");
 
         System.out.println("New frequency: "
-                + system.frequencyMap.get("java 21 features"));
+                + Math.round(system.getScore("java 21 features")));
+
+        decayDemo();
+        stressTest();
+
+        if (Arrays.asList(args).contains("--benchmark")) {
+            benchmarkSearch();
+            memoryReport();
+
+            try {
+                coldStartBenchmark();
+            } catch (IOException e) {
+                System.err.println("Cold start benchmark failed: " + e.getMessage());
+            }
+        }
+    }
+
+    // Cold start from a query log: per-line updates vs. bulk load vs. image
+    static void coldStartBenchmark() throws IOException {
+        Path log = Files.createTempFile("queries", ".log");
+        Path image = Files.createTempFile("autocomplete", ".img");
+        try {
+            List<String> queries = generateQueries(500_000, 11);
+            try (BufferedWriter writer = Files.newBufferedWriter(log)) {
+                for (String query : queries) {
+                    writer.write(query);
+                    writer.newLine();
+                }
+            }
+
+            long start = System.nanoTime();
+            AutocompleteSystem perLine = new AutocompleteSystem();
+            try (Stream<String> lines = Files.lines(log)) {
+                lines.forEach(perLine::updateFrequency);
+            }
+            long perLineMs = (System.nanoTime() - start) / 1_000_000;
+
+            start = System.nanoTime();
+            AutocompleteSystem bulk = new AutocompleteSystem();
+            bulk.bulkLoad(log);
+            long bulkMs = (System.nanoTime() - start) / 1_000_000;
+
+            start = System.nanoTime();
+            bulk.writeImage(image);
+            long writeMs = (System.nanoTime() - start) / 1_000_000;
+
+            start = System.nanoTime();
+            AutocompleteSystem fromImage = new AutocompleteSystem();
+            fromImage.loadImage(image);
+            long imageMs = (System.nanoTime() - start) / 1_000_000;
+
+            List<String> prefixes = new ArrayList<>(Arrays.asList("", "j", "java ", "python t", "go"));
+            Random random = new Random(5);
+            for (int i = 0; i < 2000; i++) {
+                String query = queries.get(random.nextInt(queries.size()));
+                prefixes.add(query.substring(0, random.nextInt(query.length() + 1)));
+            }
+            for (String prefix : prefixes) {
+                List<String> expected = perLine.search(prefix);
+                if (!expected.equals(bulk.search(prefix)) || !expected.equals(fromImage.search(prefix))) {
+                    throw new IllegalStateException("Cold start mismatch for '" + prefix + "'");
+                }
+            }
+
+            System.out.printf("%nCold start (500k log lines, %d distinct): per-line %d ms, "
+                            + "bulk load %d ms, image write %d ms (%d KB), image load %d ms%n",
+                    bulk.state.frequencies.size(), perLineMs, bulkMs, writeMs,
+                    Files.size(image) / 1024, imageMs);
+        } finally {
+            Files.deleteIfExists(log);
+            Files.deleteIfExists(image);
+        }
+    }
+
+    // Many lock-free readers against one writer; readers check that every
+    // update the writer has published is visible and no result is torn
+    static void stressTest() {
+        AutocompleteSystem system = new AutocompleteSystem();
+        int updates = 20_000;
+        int readers = 4;
+        AtomicInteger published = new AtomicInteger(-1);
+        AtomicBoolean done = new AtomicBoolean();
+        AtomicInteger failures = new AtomicInteger();
+        AtomicInteger reads = new AtomicInteger();
+
+        Thread writer = new Thread(() -> {
+            for (int i = 0; i < updates; i++) {
+                system.updateFrequency("stress " + i);
+                published.set(i);
+            }
+            done.set(true);
+        });
+
+        List<Thread> readerThreads = new ArrayList<>();
+        for (int r = 0; r < readers; r++) {
+            long seed = r;
+            readerThreads.add(new Thread(() -> {
+                Random random = new Random(seed);
+                while (!done.get()) {
+                    int upTo = published.get();
+                    if (upTo < 0) continue;
+
+                    // "stress i" sorts before "stress i0".."stress i9" at equal frequency
+                    String expected = "stress " + random.nextInt(upTo + 1);
+                    List<String> results = system.search(expected);
+                    if (results.isEmpty() || !results.get(0).equals(expected)
+                            || results.size() > TOP_K
+                            || new HashSet<>(results).size() != results.size()) {
+                        failures.incrementAndGet();
+                    }
+                    for (String result : results) {
+                        if (!result.startsWith(expected)) failures.incrementAndGet();
+                    }
+                    reads.incrementAndGet();
+                }
+            }));
+        }
+
+        readerThreads.forEach(Thread::start);
+        writer.start();
+        try {
+            writer.join();
+            for (Thread reader : readerThreads) reader.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        System.out.printf("%nStress test: %d updates, %d concurrent reads, %d failures%n",
+                updates, reads.get(), failures.get());
+        if (failures.get() > 0) {
+            throw new IllegalStateException("Stress test: " + failures.get()
+                    + " reads saw a missing, torn or misranked result");
+        }
+    }
+
+    // Trending beats last year's favourite; faded queries get pruned
+    static void decayDemo() {
+        long hour = 3_600_000L;
+        AtomicLong now = new AtomicLong(0);
+        AutocompleteSystem system = new AutocompleteSystem(hour, 0.5, now::get);
+
+        for (int i = 0; i < 100; i++) system.updateFrequency("java 8 streams");
+        system.updateFrequency("java 9 modules");
+
+        now.addAndGet(24 * hour);
+        for (int i = 0; i < 5; i++) system.updateFrequency("java 21 features");
+
+        System.out.println("\nAfter 24h (1h half-life), 'java' -> " + system.search("java"));
+        System.out.printf("Scores: 'java 8 streams' %.6f, 'java 21 features' %.1f, tracked queries: %d%n",
+                system.getScore("java 8 streams"), system.getScore("java 21 features"),
+                system.state.frequencies.size());
+
+        // Past the renormalization point the ranking must be unchanged
+        now.addAndGet(80 * hour);
+        for (int i = 0; i < 3; i++) system.updateFrequency("java 25 preview");
+        system.updateFrequency("java 21 features");
+        System.out.println("After renormalization, 'java' -> " + system.search("java"));
+    }
+
+    // Generated query log with a skewed word choice, so some queries are
+    // much more popular than others
+    static List<String> generateQueries(int count, long seed) {
+        Random random = new Random(seed);
+        String[] words = {"java", "javascript", "python", "rust", "go", "kotlin",
+                "tutorial", "download", "features", "example", "error", "install",
+                "vs", "array", "string", "list", "map", "stream", "thread", "test"};
+
+        List<String> queries = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            StringBuilder query = new StringBuilder();
+            int length = 2 + random.nextInt(3);
+            for (int w = 0; w < length; w++) {
+                if (w > 0) query.append(' ');
+                int index = (int) (words.length * Math.pow(random.nextDouble(), 2));
+                query.append(words[index]);
+            }
+            query.append(' ').append(random.nextInt(50));
+            queries.add(query.toString());
+        }
+        return queries;
+    }
+
+    // Compare precomputed top-K search with the subtree DFS on a generated corpus
+    static void benchmarkSearch() {
+        AutocompleteSystem system = new AutocompleteSystem();
+        for (String query : generateQueries(300_000, 42)) {
+            system.updateFrequency(query);
+        }
+
+        String[] prefixes = {"j", "ja", "java ", "p", "rust tu", "go"};
+        int rounds = 20;
+        for (String prefix : prefixes) {
+            if (!system.search(prefix).equals(system.searchByDfs(prefix))) {
+                throw new IllegalStateException("Top-K mismatch for '" + prefix + "'");
+            }
+        }
+
+        long dfsStart = System.nanoTime();
+        for (int r = 0; r < rounds; r++) {
+            for (String prefix : prefixes) system.searchByDfs(prefix);
+        }
+        long dfsNanos = System.nanoTime() - dfsStart;
+
+        long topKStart = System.nanoTime();
+        for (int r = 0; r < rounds; r++) {
+            for (String prefix : prefixes) system.search(prefix);
+        }
+        long topKNanos = System.nanoTime() - topKStart;
+
+        int lookups = rounds * prefixes.length;
+        System.out.printf("%nBenchmark (%d distinct queries): DFS %.3f ms/search, top-K %.4f ms/search%n",
+                system.state.frequencies.size(),
+                dfsNanos / 1e6 / lookups, topKNanos / 1e6 / lookups);
+
+        // Typos: transposition, substitution, deletion, insertion mid-word
+        String[] typos = {"jvaa tut", "pythno", "rsut tutorial", "kotln ex", "javascirpt"};
+        String[] corrected = {"java tut", "python", "rust tutorial", "kotlin ex", "javascript"};
+        for (String typo : typos) {
+            System.out.println("suggestWithTypo('" + typo + "') -> "
+                    + system.suggestWithTypo(typo).subList(0, 3));
+        }
+
+        // Best-first search must match the exhaustive walk, including on
+        // randomly corrupted queries from the corpus
+        Random random = new Random(3);
+        List<String> corpus = new ArrayList<>(system.state.frequencies.keySet());
+        List<String> checks = new ArrayList<>(Arrays.asList(typos));
+        for (int i = 0; i < 300; i++) {
+            String query = corpus.get(random.nextInt(corpus.size()));
+            StringBuilder typo = new StringBuilder(query.substring(0, Math.min(query.length(), 3 + random.nextInt(10))));
+            int at = random.nextInt(typo.length());
+            typo.setCharAt(at, (char) ('a' + random.nextInt(26)));
+            checks.add(typo.toString());
+        }
+        for (String input : checks) {
+            for (int distance = 1; distance <= MAX_TYPO_DISTANCE; distance++) {
+                if (!system.fuzzySearch(input, distance).equals(system.fuzzySearchByWalk(input, distance))) {
+                    throw new IllegalStateException("Fuzzy mismatch for '" + input + "' at distance " + distance);
+                }
+            }
+        }
+
+        // Best of several passes: single runs on a busy machine are noisy
+        int fuzzyRounds = 400, passes = 5;
+        long walkNanos = Long.MAX_VALUE, exactNanos = Long.MAX_VALUE, fuzzyNanos = Long.MAX_VALUE;
+        for (int pass = 0; pass < passes; pass++) {
+            long start = System.nanoTime();
+            for (int r = 0; r < fuzzyRounds; r++) {
+                for (String typo : typos) system.fuzzySearchByWalk(typo, MAX_TYPO_DISTANCE);
+            }
+            walkNanos = Math.min(walkNanos, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            for (int r = 0; r < fuzzyRounds; r++) {
+                for (String prefix : corrected) system.search(prefix);
+            }
+            exactNanos = Math.min(exactNanos, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            for (int r = 0; r < fuzzyRounds; r++) {
+                for (String typo : typos) system.suggestWithTypo(typo);
+            }
+            fuzzyNanos = Math.min(fuzzyNanos, System.nanoTime() - start);
+        }
+
+        int typoLookups = fuzzyRounds * typos.length;
+        System.out.printf("Fuzzy (distance <= 2) %.4f ms/search (exhaustive walk %.4f) vs exact prefix %.4f ms/search%n",
+                fuzzyNanos / 1e6 / typoLookups, walkNanos / 1e6 / typoLookups,
+                exactNanos / 1e6 / typoLookups);
+    }
+
+    // Previous layout (one HashMap-backed node per character), kept only
+    // for the memory comparison below
+    static class CharTrieNode {
+        Map<Character, CharTrieNode> children = new HashMap<>();
+        boolean isEndOfWord = false;
+        List<String> topK = new ArrayList<>(TOP_K + 1);
+    }
+
+    // Heap used by the per-character HashMap layout vs. the radix layout
+    static void memoryReport() {
+        List<String> log = generateQueries(1_000_000, 7);
+        Set<String> distinct = new HashSet<>(log);
+        long rawChars = 0;
+        for (String query : distinct) rawChars += query.length();
+
+        long baseline = usedHeap();
+        AutocompleteSystem radix = new AutocompleteSystem();
+        for (String query : log) {
+            radix.updateFrequency(query);
+        }
+        long radixBytes = usedHeap() - baseline;
+
+        // Same top-K contents, one node per character
+        CharTrieNode charRoot = new CharTrieNode();
+        long charNodes = 1;
+        for (String query : distinct) {
+            CharTrieNode current = charRoot;
+            for (char c : query.toCharArray()) {
+                CharTrieNode next = current.children.get(c);
+                if (next == null) {
+                    next = new CharTrieNode();
+                    current.children.put(c, next);
+                    charNodes++;
+                }
+                current = next;
+            }
+            current.isEndOfWord = true;
+        }
+        copyTopK(radix, charRoot, new StringBuilder());
+        long charBytes = usedHeap() - baseline - radixBytes;
+
+        System.out.printf("%nMemory (%d distinct queries, %d KB raw chars):%n",
+                distinct.size(), rawChars * 2 / 1024);
+        System.out.printf("  HashMap per char: %,d nodes, %,d KB%n", charNodes, charBytes / 1024);
+        System.out.printf("  Radix + arrays:   %,d nodes, %,d KB (incl. frequency map)%n",
+                countNodes(radix.root), radixBytes / 1024);
+    }
+
+    private static void copyTopK(AutocompleteSystem radix, CharTrieNode node, StringBuilder path) {
+        node.topK.addAll(radix.search(path.toString()));
+        for (Map.Entry<Character, CharTrieNode> entry : node.children.entrySet()) {
+            path.append(entry.getKey());
+            copyTopK(radix, entry.getValue(), path);
+            path.setLength(path.length() - 1);
+        }
+    }
+
+    private static long countNodes(TrieNode node) {
+        long count = 1;
+        for (TrieNode child : node.children) count += countNodes(child);
+        return count;
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
     }
-}
\ No newline at end of file
+}
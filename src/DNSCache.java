@@ -1,18 +1,65 @@
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
 
 public class DNSCache {
 
+    private static final long DEFAULT_TTL_SECONDS = 300;
+    private static final long EXPIRY_TICK_MS = 1000;
+    private static final int EXPIRY_BATCH = 1024;
+    private static final int REFRESH_THREADS = 4;
+    private static final int REFRESH_QUEUE_CAPACITY = 1024;
+    private static final int BATCH_UPSTREAM_THREADS = 32;
+    private static final int DEFAULT_BATCH_PARALLELISM = 16;
+    // resolveAll grows its pool to the requested parallelism, up to this
+    private static final int MAX_BATCH_PARALLELISM = 256;
+
+    // Snapshot file: header (magic, version, count) then per record
+    // [u16 domainLen][domain][u16 ipLen][ip][i64 expiryTime]
+    private static final int SNAPSHOT_MAGIC = 0x444E5343; // "DNSC"
+    private static final int SNAPSHOT_VERSION = 1;
+    private static final int SNAPSHOT_HEADER_BYTES = 12;
+    private static final int SNAPSHOT_MIN_RECORD_BYTES = 2 + 2 + 8;
+    private static final int SNAPSHOT_BUFFER_BYTES = 1 << 16;
+
+    // Expiry index order; shared so a presorted batch can be bulk-loaded
+    private static final Comparator<DNSEntry> EXPIRY_ORDER =
+            Comparator.comparingLong((DNSEntry e) -> e.expiryTime)
+                    .thenComparingLong(e -> e.seq);
+
     // DNS Entry Class
     static class DNSEntry {
-        String domain;
-        String ipAddress;
-        long expiryTime;
+        private static final AtomicLong SEQUENCE = new AtomicLong();
+
+        final String domain;
+        final String ipAddress;
+        final long expiryTime;
+        final long ttlMillis;
+        final long seq; // tie-breaker for entries expiring in the same ms
 
         DNSEntry(String domain, String ipAddress, long ttlSeconds) {
+            this(domain, ipAddress,
+                    System.currentTimeMillis() + ttlSeconds * 1000, ttlSeconds * 1000);
+        }
+
+        // Restored entry with an absolute expiry (warm start)
+        DNSEntry(String domain, String ipAddress, long expiryTime, long ttlMillis) {
             this.domain = domain;
             this.ipAddress = ipAddress;
-            this.expiryTime = System.currentTimeMillis() + (ttlSeconds * 1000);
+            this.expiryTime = expiryTime;
+            this.ttlMillis = ttlMillis;
+            this.seq = SEQUENCE.incrementAndGet();
         }
 
         boolean isExpired() {
@@ -21,55 +68,365 @@ public class DNSCache {
     }
 
     private final int maxSize;
-    private final Map<String, DNSEntry> cache;
-    private long hits = 0;
-    private long misses = 0;
-    private long totalLookupTime = 0;
+    private final long ttlSeconds;
+
+    // Refresh-ahead: hits within the last refreshAheadFraction of the TTL
+    // trigger an async refresh; expired entries are still served for
+    // staleGraceMillis while that refresh runs (0 disables both)
+    private final double refreshAheadFraction;
+    private final long staleGraceMillis;
+    private final ThreadPoolExecutor refreshExecutor;
+
+    // Upstream fan-out for resolveAll: BATCH_UPSTREAM_THREADS to start, grown
+    // to the largest parallelism requested (idle threads time out)
+    private final ThreadPoolExecutor batchExecutor;
+
+    // domain -> IP; the simulated resolver unless one is supplied
+    private final Function<String, String> upstream;
+
+    // domain -> entry, read without locking on the hit path
+    private final ConcurrentHashMap<String, DNSEntry> cache;
+
+    // LRU order and expiry order, both guarded by evictionLock
+    // (all writes to cache also go through it)
+    private final LinkedHashMap<String, DNSEntry> lruOrder;
+    private final TreeSet<DNSEntry> expiryIndex;
+    private final ReentrantLock evictionLock = new ReentrantLock();
+
+    // domain -> pending upstream query, so concurrent misses share one call
+    private final ConcurrentHashMap<String, CompletableFuture<DNSEntry>> inFlight;
+
+    // Per-outcome counters and latency histograms (contention-free)
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder expiredEvictions = new LongAdder();
+    private final LongAdder lruEvictions = new LongAdder();
+    private final LongAdder refreshes = new LongAdder();
+    private final LatencyHistogram hitLatency = new LatencyHistogram();
+    private final LatencyHistogram missLatency = new LatencyHistogram();
+    private final LatencyHistogram refreshLatency = new LatencyHistogram();
+
+    private final ScheduledExecutorService maintenanceScheduler;
+
+    // Written periodically and on shutdown once enableSnapshots() is called
+    private volatile Path snapshotFile;
 
     // Constructor with LRU support
     public DNSCache(int maxSize) {
+        this(maxSize, DEFAULT_TTL_SECONDS, 0, 0);
+    }
+
+    // Constructor with refresh-ahead (stale-while-revalidate) support
+    public DNSCache(int maxSize, long ttlSeconds,
+                    double refreshAheadFraction, long staleGraceSeconds) {
+        this(maxSize, ttlSeconds, refreshAheadFraction, staleGraceSeconds,
+                DNSCache::simulatedUpstream);
+    }
+
+    // Constructor with a custom upstream resolver
+    DNSCache(int maxSize, long ttlSeconds, double refreshAheadFraction,
+             long staleGraceSeconds, Function<String, String> upstream) {
+        if (refreshAheadFraction < 0 || refreshAheadFraction >= 1) {
+            throw new IllegalArgumentException(
+                    "refreshAheadFraction must be in [0, 1): " + refreshAheadFraction);
+        }
         this.maxSize = maxSize;
+        this.ttlSeconds = ttlSeconds;
+        this.upstream = upstream;
+        this.refreshAheadFraction = refreshAheadFraction;
+        this.staleGraceMillis = refreshAheadFraction > 0 ? staleGraceSeconds * 1000 : 0;
+        this.cache = new ConcurrentHashMap<>(maxSize);
+        // Sized so a full cache never rehashes
+        this.lruOrder = new LinkedHashMap<>((int) (maxSize / 0.75f) + 1, 0.75f, true);
+        this.expiryIndex = new TreeSet<>(EXPIRY_ORDER);
+        this.inFlight = new ConcurrentHashMap<>();
 
-        this.cache = Collections.synchronizedMap(
-                new LinkedHashMap<String, DNSEntry>(maxSize, 0.75f, true) {
-                    protected boolean removeEldestEntry(Map.Entry<String, DNSEntry> eldest) {
-                        return size() > DNSCache.this.maxSize;
-                    }
-                }
-        );
+        this.maintenanceScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "dns-cache-maintenance");
+            t.setDaemon(true);
+            return t;
+        });
+        maintenanceScheduler.scheduleWithFixedDelay(this::expireDueEntries,
+                EXPIRY_TICK_MS, EXPIRY_TICK_MS, TimeUnit.MILLISECONDS);
+
+        // Bounded pool and queue: when full, refreshes are dropped and the
+        // entry is simply served until it expires
+        this.refreshExecutor = refreshAheadFraction == 0 ? null :
+                new ThreadPoolExecutor(REFRESH_THREADS, REFRESH_THREADS,
+                        0L, TimeUnit.MILLISECONDS,
+                        new ArrayBlockingQueue<>(REFRESH_QUEUE_CAPACITY),
+                        r -> {
+                            Thread t = new Thread(r, "dns-cache-refresh");
+                            t.setDaemon(true);
+                            return t;
+                        });
 
-        startCleanupThread();
+        this.batchExecutor = new ThreadPoolExecutor(BATCH_UPSTREAM_THREADS,
+                BATCH_UPSTREAM_THREADS, 30L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(),
+                r -> {
+                    Thread t = new Thread(r, "dns-cache-batch");
+                    t.setDaemon(true);
+                    return t;
+                });
+        batchExecutor.allowCoreThreadTimeOut(true);
     }
 
     // Resolve domain
     public String resolve(String domain) {
         long startTime = System.nanoTime();
 
-        synchronized (cache) {
-            DNSEntry entry = cache.get(domain);
+        DNSEntry entry = lookupCached(domain);
+
+        if (entry != null) {
+            hitLatency.record(System.nanoTime() - startTime);
+            return !entry.isExpired()
+                    ? "Cache HIT → " + entry.ipAddress
+                    : "Cache HIT (stale, refreshing) → " + entry.ipAddress;
+        }
+
+        // Cache MISS (upstream query runs outside any shared lock)
+        misses.increment();
+        DNSEntry fresh = loadFromUpstream(domain);
+
+        missLatency.record(System.nanoTime() - startTime);
+        return "Cache MISS → Queried upstream → " + fresh.ipAddress;
+    }
+
+    // Resolve many domains at once: hits come straight from the cache and
+    // misses go upstream concurrently, so the batch costs ~one round trip.
+    // Returns when every domain has settled; each future holds that domain's
+    // IP or its own upstream failure, so one bad domain never fails the batch.
+    public Map<String, CompletableFuture<String>> resolveAll(Collection<String> domains) {
+        return resolveAll(domains, DEFAULT_BATCH_PARALLELISM);
+    }
+
+    // Same, with at most maxParallelism (up to MAX_BATCH_PARALLELISM) upstream
+    // queries in flight for this batch
+    public Map<String, CompletableFuture<String>> resolveAll(Collection<String> domains,
+                                                             int maxParallelism) {
+        if (maxParallelism < 1 || maxParallelism > MAX_BATCH_PARALLELISM) {
+            throw new IllegalArgumentException("maxParallelism must be in [1, " +
+                    MAX_BATCH_PARALLELISM + "]: " + maxParallelism);
+        }
+        ensureBatchThreads(maxParallelism);
+
+        Map<String, CompletableFuture<String>> results = new LinkedHashMap<>();
+        Semaphore permits = new Semaphore(maxParallelism);
 
+        for (String domain : domains) {
+            if (results.containsKey(domain)) {
+                continue;
+            }
+
+            long startTime = System.nanoTime();
+            DNSEntry entry = lookupCached(domain);
             if (entry != null) {
-                if (!entry.isExpired()) {
-                    hits++;
-                    totalLookupTime += (System.nanoTime() - startTime);
-                    return "Cache HIT → " + entry.ipAddress;
-                } else {
-                    cache.remove(domain);
+                hitLatency.record(System.nanoTime() - startTime);
+                results.put(domain, CompletableFuture.completedFuture(entry.ipAddress));
+                continue;
+            }
+
+            misses.increment();
+            permits.acquireUninterruptibly();
+            CompletableFuture<DNSEntry> load;
+            try {
+                load = CompletableFuture.supplyAsync(() -> loadFromUpstream(domain), batchExecutor);
+            } catch (RejectedExecutionException e) {
+                // Shut down: nothing will run to release the permit
+                permits.release();
+                results.put(domain, CompletableFuture.failedFuture(e));
+                continue;
+            }
+            results.put(domain, load
+                    .whenComplete((loaded, error) -> {
+                        permits.release();
+                        missLatency.record(System.nanoTime() - startTime);
+                    })
+                    .thenApply(loaded -> loaded.ipAddress));
+        }
+
+        CompletableFuture.allOf(results.values().toArray(new CompletableFuture<?>[0]))
+                .exceptionally(error -> null)
+                .join();
+        return results;
+    }
+
+    // Grow the shared batch pool to at least threads; idle threads time out
+    private void ensureBatchThreads(int threads) {
+        synchronized (batchExecutor) {
+            if (batchExecutor.getCorePoolSize() < threads) {
+                batchExecutor.setMaximumPoolSize(threads);
+                batchExecutor.setCorePoolSize(threads);
+            }
+        }
+    }
+
+    // Servable cached entry (fresh, or stale within the grace period), else null
+    private DNSEntry lookupCached(String domain) {
+        DNSEntry entry = cache.get(domain);
+        if (entry == null) {
+            return null;
+        }
+
+        long now = System.currentTimeMillis();
+        if (now > entry.expiryTime + staleGraceMillis) {
+            removeEntry(entry);
+            return null;
+        }
+
+        touch(domain);
+        if (shouldRefresh(entry, now)) {
+            refreshAsync(entry);
+        }
+        hits.increment();
+        return entry;
+    }
+
+    // Query upstream once per domain; concurrent callers wait on the same future
+    private DNSEntry loadFromUpstream(String domain) {
+        CompletableFuture<DNSEntry> pending = new CompletableFuture<>();
+        CompletableFuture<DNSEntry> existing = inFlight.putIfAbsent(domain, pending);
+
+        if (existing != null) {
+            return awaitLoad(existing);
+        }
+        return runLoad(domain, pending, false);
+    }
+
+    // Perform the upstream query for the loader that owns the pending future
+    private DNSEntry runLoad(String domain, CompletableFuture<DNSEntry> pending,
+                             boolean refresh) {
+        try {
+            // Another loader may have finished between our check and putIfAbsent
+            DNSEntry cached = cache.get(domain);
+            boolean current = cached != null && (refresh
+                    ? !shouldRefresh(cached, System.currentTimeMillis())
+                    : !cached.isExpired());
+            long queryStart = System.nanoTime();
+            DNSEntry fresh = current
+                    ? cached
+                    : new DNSEntry(domain, upstream.apply(domain), ttlSeconds);
+
+            if (fresh != cached) {
+                install(fresh);
+                if (refresh) {
+                    refreshes.increment();
+                    refreshLatency.record(System.nanoTime() - queryStart);
                 }
             }
+            pending.complete(fresh);
+            return fresh;
+        } catch (RuntimeException e) {
+            pending.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(domain, pending);
+        }
+    }
+
+    // Hit is inside the refresh-ahead window (or already stale)
+    private boolean shouldRefresh(DNSEntry entry, long now) {
+        return refreshAheadFraction > 0
+                && entry.expiryTime - now <= entry.ttlMillis * refreshAheadFraction;
+    }
 
-            // Cache MISS
-            misses++;
-            String ip = queryUpstreamDNS(domain);
-            cache.put(domain, new DNSEntry(domain, ip, 300));
+    // Refresh off the caller's thread; no-op if a load is already in flight
+    private void refreshAsync(DNSEntry entry) {
+        if (inFlight.containsKey(entry.domain)) {
+            return;
+        }
 
-            totalLookupTime += (System.nanoTime() - startTime);
-            return "Cache MISS → Queried upstream → " + ip;
+        CompletableFuture<DNSEntry> pending = new CompletableFuture<>();
+        if (inFlight.putIfAbsent(entry.domain, pending) != null) {
+            return;
+        }
+
+        try {
+            refreshExecutor.execute(() -> {
+                try {
+                    runLoad(entry.domain, pending, true);
+                } catch (RuntimeException ignored) {
+                    // Keep serving the current entry until it expires
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Refresh queue full: anyone who joined meanwhile gets the current entry
+            inFlight.remove(entry.domain, pending);
+            pending.complete(entry);
+        }
+    }
+
+    private DNSEntry awaitLoad(CompletableFuture<DNSEntry> pending) {
+        try {
+            return pending.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    // Record access for LRU; skipped under contention so hits never block
+    private void touch(String domain) {
+        if (evictionLock.tryLock()) {
+            try {
+                lruOrder.get(domain);
+            } finally {
+                evictionLock.unlock();
+            }
+        }
+    }
+
+    // Insert entry and evict least recently used ones beyond maxSize
+    private void install(DNSEntry entry) {
+        evictionLock.lock();
+        try {
+            installLocked(entry);
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    // Caller must hold evictionLock
+    private void installLocked(DNSEntry entry) {
+        DNSEntry previous = lruOrder.put(entry.domain, entry);
+        if (previous != null) {
+            expiryIndex.remove(previous);
+        }
+        cache.put(entry.domain, entry);
+        expiryIndex.add(entry);
+
+        if (lruOrder.size() <= maxSize) {
+            return;
+        }
+        Iterator<DNSEntry> eldest = lruOrder.values().iterator();
+        while (lruOrder.size() > maxSize && eldest.hasNext()) {
+            DNSEntry evicted = eldest.next();
+            eldest.remove();
+            cache.remove(evicted.domain, evicted);
+            expiryIndex.remove(evicted);
+            lruEvictions.increment();
+        }
+    }
+
+    // Remove entry only if it is still the current mapping
+    private void removeEntry(DNSEntry entry) {
+        evictionLock.lock();
+        try {
+            if (cache.remove(entry.domain, entry)) {
+                lruOrder.remove(entry.domain);
+                expiryIndex.remove(entry);
+                expiredEvictions.increment();
+            }
+        } finally {
+            evictionLock.unlock();
         }
     }
 
     // Simulated upstream DNS query
-    private String queryUpstreamDNS(String domain) {
+    private static String simulatedUpstream(String domain) {
         try {
             Thread.sleep(100); // Simulate 100ms delay
         } catch (InterruptedException e) {
@@ -77,48 +434,539 @@ public class DNSCache {
         }
 
         // Fake IP generation
-        return "172.217.14." + new Random().nextInt(255);
+        return "172.217.14." + ThreadLocalRandom.current().nextInt(255);
     }
 
-    // Background thread to clean expired entries
-    private void startCleanupThread() {
-        Thread cleaner = new Thread(() -> {
-            while (true) {
-                try {
-                    Thread.sleep(5000); // Clean every 5 seconds
-                    synchronized (cache) {
-                        Iterator<Map.Entry<String, DNSEntry>> iterator = cache.entrySet().iterator();
-                        while (iterator.hasNext()) {
-                            if (iterator.next().getValue().isExpired()) {
-                                iterator.remove();
-                            }
-                        }
+    // Expiry tick: only visits entries that are due, in expiry order
+    private void expireDueEntries() {
+        boolean more = true;
+        while (more) {
+            evictionLock.lock();
+            try {
+                long now = System.currentTimeMillis();
+                int expired = 0;
+                while (!expiryIndex.isEmpty()
+                        && expiryIndex.first().expiryTime + staleGraceMillis < now
+                        && expired < EXPIRY_BATCH) {
+                    DNSEntry entry = expiryIndex.pollFirst();
+                    if (cache.remove(entry.domain, entry)) {
+                        lruOrder.remove(entry.domain);
+                        expiredEvictions.increment();
                     }
-                } catch (InterruptedException e) {
-                    Thread.currentThread().interrupt();
+                    expired++;
                 }
+                // Release the lock between batches so resolves can interleave
+                more = expired == EXPIRY_BATCH;
+            } finally {
+                evictionLock.unlock();
             }
-        });
+        }
+    }
+
+    // Stop the maintenance scheduler and worker pools, then write a
+    // final snapshot if snapshots are enabled
+    public void shutdown() {
+        // shutdown() cancels the periodic tasks without interrupting one that
+        // is running, so an in-progress snapshot write (an interruptible
+        // FileChannel) can finish; interrupt only if it overruns
+        maintenanceScheduler.shutdown();
+        if (refreshExecutor != null) {
+            refreshExecutor.shutdownNow();
+        }
+        batchExecutor.shutdownNow();
 
-        cleaner.setDaemon(true);
-        cleaner.start();
+        try {
+            if (!maintenanceScheduler.awaitTermination(5, TimeUnit.SECONDS)) {
+                maintenanceScheduler.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            maintenanceScheduler.shutdownNow();
+            Thread.currentThread().interrupt();
+            return;
+        }
+
+        Path file = snapshotFile;
+        if (file != null) {
+            try {
+                writeSnapshot(file);
+            } catch (IOException e) {
+                System.err.println("DNSCache: final snapshot failed: " + e.getMessage());
+            }
+        }
+    }
+
+    // Warm start from file (if present), then snapshot every intervalSeconds
+    public int enableSnapshots(Path file, long intervalSeconds) throws IOException {
+        int loaded = Files.exists(file) ? loadSnapshot(file) : 0;
+        snapshotFile = file;
+
+        maintenanceScheduler.scheduleWithFixedDelay(() -> {
+            try {
+                writeSnapshot(file);
+            } catch (IOException e) {
+                System.err.println("DNSCache: snapshot failed: " + e.getMessage());
+            }
+        }, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+
+        return loaded;
+    }
+
+    // Write live entries to file (via a temp file and atomic rename) in
+    // expiry order, so a warm start can skip sorting; iterates the
+    // concurrent map, so resolves are never blocked
+    public int writeSnapshot(Path file) throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        ByteBuffer buffer = ByteBuffer.allocate(SNAPSHOT_BUFFER_BYTES);
+        long now = System.currentTimeMillis();
+        int count = 0;
+
+        List<DNSEntry> live = new ArrayList<>(cache.size());
+        for (DNSEntry entry : cache.values()) {
+            if (entry.expiryTime + staleGraceMillis >= now) {
+                live.add(entry);
+            }
+        }
+        live = sortByExpiry(live);
+
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            buffer.putInt(SNAPSHOT_MAGIC).putInt(SNAPSHOT_VERSION).putInt(0);
+
+            for (DNSEntry entry : live) {
+                byte[] domain = entry.domain.getBytes(StandardCharsets.UTF_8);
+                byte[] ip = entry.ipAddress.getBytes(StandardCharsets.UTF_8);
+                if (domain.length > 0xFFFF || ip.length > 0xFFFF) {
+                    continue;
+                }
+
+                int recordBytes = 2 + domain.length + 2 + ip.length + 8;
+                if (buffer.remaining() < recordBytes) {
+                    drain(channel, buffer);
+                }
+                buffer.putShort((short) domain.length).put(domain)
+                        .putShort((short) ip.length).put(ip)
+                        .putLong(entry.expiryTime);
+                count++;
+            }
+            drain(channel, buffer);
+
+            // Patch the record count into the header
+            buffer.putInt(count).flip();
+            channel.write(buffer, 8);
+            channel.force(false);
+        } catch (IOException e) {
+            // Don't leave a partial temp file behind
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        return count;
+    }
+
+    private static void drain(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    // Memory-mapped read of a snapshot; expired records are dropped
+    public int loadSnapshot(Path file) throws IOException {
+        List<DNSEntry> restored;
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer mapped =
+                    channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+            if (mapped.remaining() < SNAPSHOT_HEADER_BYTES
+                    || mapped.getInt() != SNAPSHOT_MAGIC
+                    || mapped.getInt() != SNAPSHOT_VERSION) {
+                throw new IOException("Not a DNSCache snapshot: " + file);
+            }
+
+            // Every record takes at least its two lengths and the expiry time
+            int count = mapped.getInt();
+            if (count < 0 || count > mapped.remaining() / SNAPSHOT_MIN_RECORD_BYTES) {
+                throw new IOException("Corrupt DNSCache snapshot: header claims " + count +
+                        " records in " + mapped.remaining() + " bytes: " + file);
+            }
+            long now = System.currentTimeMillis();
+            byte[] scratch = new byte[256];
+            restored = new ArrayList<>(Math.min(count, maxSize));
+
+            try {
+                for (int i = 0; i < count; i++) {
+                    int domainLen = Short.toUnsignedInt(mapped.getShort());
+                    scratch = ensureCapacity(scratch, domainLen);
+                    mapped.get(scratch, 0, domainLen);
+                    String domain = new String(scratch, 0, domainLen, StandardCharsets.UTF_8);
+
+                    int ipLen = Short.toUnsignedInt(mapped.getShort());
+                    scratch = ensureCapacity(scratch, ipLen);
+                    mapped.get(scratch, 0, ipLen);
+                    String ip = new String(scratch, 0, ipLen, StandardCharsets.UTF_8);
+
+                    long expiryTime = mapped.getLong();
+                    if (expiryTime + staleGraceMillis >= now) {
+                        restored.add(new DNSEntry(domain, ip, expiryTime, ttlSeconds * 1000));
+                    }
+                }
+            } catch (BufferUnderflowException e) {
+                throw new IOException("Truncated DNSCache snapshot: " + file, e);
+            }
+        }
+
+        // Sort once; if over capacity keep the longest-lived entries
+        restored = sortByExpiry(restored);
+        if (restored.size() > maxSize) {
+            restored = restored.subList(restored.size() - maxSize, restored.size());
+        }
+
+        // One lock acquisition for the whole batch
+        evictionLock.lock();
+        try {
+            if (lruOrder.isEmpty()) {
+                bulkInstallLocked(restored);
+            } else {
+                for (DNSEntry entry : restored) {
+                    installLocked(entry);
+                }
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+        return restored.size();
+    }
+
+    // Stable sort by expiry time (for parsed records list order is seq
+    // order, so the result is in EXPIRY_ORDER); sorts packed
+    // (expiry offset, position) longs instead of comparing objects
+    private static List<DNSEntry> sortByExpiry(List<DNSEntry> entries) {
+        int n = entries.size();
+        if (n < 2) {
+            return entries;
+        }
+        long min = Long.MAX_VALUE, max = Long.MIN_VALUE;
+        boolean sorted = true;
+        long previous = Long.MIN_VALUE;
+        for (DNSEntry entry : entries) {
+            min = Math.min(min, entry.expiryTime);
+            max = Math.max(max, entry.expiryTime);
+            sorted &= entry.expiryTime >= previous;
+            previous = entry.expiryTime;
+        }
+        if (sorted) {
+            return entries;
+        }
+
+        int positionBits = 32 - Integer.numberOfLeadingZeros(n - 1);
+        if (max - min >= 1L << (63 - positionBits)) {
+            entries.sort(Comparator.comparingLong(e -> e.expiryTime));
+            return entries;
+        }
+        long[] keys = new long[n];
+        for (int i = 0; i < n; i++) {
+            keys[i] = (entries.get(i).expiryTime - min) << positionBits | i;
+        }
+        Arrays.sort(keys);
+
+        long positionMask = (1L << positionBits) - 1;
+        List<DNSEntry> result = new ArrayList<>(n);
+        for (long key : keys) {
+            result.add(entries.get((int) (key & positionMask)));
+        }
+        return result;
+    }
+
+    // Cold start: fill the maps in expiry order (soonest to expire is
+    // eldest in LRU) and build the expiry index from the sorted batch in
+    // linear time. Caller must hold evictionLock; the cache must be empty.
+    private void bulkInstallLocked(List<DNSEntry> sorted) {
+        boolean duplicates = false;
+        for (DNSEntry entry : sorted) {
+            duplicates |= lruOrder.put(entry.domain, entry) != null;
+            cache.put(entry.domain, entry);
+        }
+
+        List<DNSEntry> live = sorted;
+        if (duplicates) {
+            // Later (longer-lived) records for a domain replaced earlier ones
+            live = new ArrayList<>(lruOrder.size());
+            for (DNSEntry entry : sorted) {
+                if (cache.get(entry.domain) == entry) {
+                    live.add(entry);
+                }
+            }
+        }
+        // TreeSet.addAll takes its linear-time build path for a SortedSet
+        // with the same comparator into an empty set
+        expiryIndex.addAll(new SortedView(live));
+    }
+
+    // Read-only SortedSet over a list already in EXPIRY_ORDER; range views
+    // are sublists found by binary search
+    private static class SortedView extends AbstractSet<DNSEntry> implements SortedSet<DNSEntry> {
+        private final List<DNSEntry> sorted;
+
+        SortedView(List<DNSEntry> sorted) {
+            this.sorted = sorted;
+        }
+
+        public Comparator<? super DNSEntry> comparator() {
+            return EXPIRY_ORDER;
+        }
+
+        public Iterator<DNSEntry> iterator() {
+            return Collections.unmodifiableList(sorted).iterator();
+        }
+
+        public int size() {
+            return sorted.size();
+        }
+
+        public boolean contains(Object o) {
+            return o instanceof DNSEntry
+                    && Collections.binarySearch(sorted, (DNSEntry) o, EXPIRY_ORDER) >= 0;
+        }
+
+        public DNSEntry first() {
+            if (sorted.isEmpty()) {
+                throw new NoSuchElementException();
+            }
+            return sorted.get(0);
+        }
+
+        public DNSEntry last() {
+            if (sorted.isEmpty()) {
+                throw new NoSuchElementException();
+            }
+            return sorted.get(sorted.size() - 1);
+        }
+
+        public SortedSet<DNSEntry> subSet(DNSEntry from, DNSEntry to) {
+            if (EXPIRY_ORDER.compare(from, to) > 0) {
+                throw new IllegalArgumentException("from is after to");
+            }
+            return new SortedView(sorted.subList(indexOf(from), indexOf(to)));
+        }
+
+        public SortedSet<DNSEntry> headSet(DNSEntry to) {
+            return new SortedView(sorted.subList(0, indexOf(to)));
+        }
+
+        public SortedSet<DNSEntry> tailSet(DNSEntry from) {
+            return new SortedView(sorted.subList(indexOf(from), sorted.size()));
+        }
+
+        // Position of the first element not before entry
+        private int indexOf(DNSEntry entry) {
+            int index = Collections.binarySearch(sorted, entry, EXPIRY_ORDER);
+            return index >= 0 ? index : -index - 1;
+        }
+    }
+
+    private static byte[] ensureCapacity(byte[] scratch, int length) {
+        return scratch.length >= length ? scratch : new byte[length];
+    }
+
+    // Log-linear latency histogram (HDR-style, ~6% precision) on striped
+    // fixed-size arrays, so record() never allocates or contends on one slot
+    static class LatencyHistogram {
+        private static final int SUB_BUCKET_BITS = 4;
+        private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+        private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+        private static final int STRIPES = 8;
+
+        private final AtomicLongArray counts = new AtomicLongArray(STRIPES * BUCKETS);
+        private final LongAdder totalNanos = new LongAdder();
+
+        void record(long nanos) {
+            long value = Math.max(0, nanos);
+            int stripe = (int) Thread.currentThread().getId() & (STRIPES - 1);
+            counts.incrementAndGet(stripe * BUCKETS + bucketOf(value));
+            totalNanos.add(value);
+        }
+
+        static int bucketOf(long value) {
+            if (value < SUB_BUCKETS) {
+                return (int) value;
+            }
+            int exponent = 63 - Long.numberOfLeadingZeros(value);
+            int sub = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+            return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+        }
+
+        // Highest value that maps to the bucket
+        static long upperBoundOf(int bucket) {
+            if (bucket < SUB_BUCKETS) {
+                return bucket;
+            }
+            int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+            long sub = bucket % SUB_BUCKETS;
+            int shift = exponent - SUB_BUCKET_BITS;
+            return ((SUB_BUCKETS + sub) << shift) + (1L << shift) - 1;
+        }
+
+        LatencySummary summarize() {
+            long[] merged = new long[BUCKETS];
+            long count = 0;
+            for (int stripe = 0; stripe < STRIPES; stripe++) {
+                for (int b = 0; b < BUCKETS; b++) {
+                    long c = counts.get(stripe * BUCKETS + b);
+                    merged[b] += c;
+                    count += c;
+                }
+            }
+
+            long max = 0;
+            for (int b = BUCKETS - 1; b >= 0; b--) {
+                if (merged[b] > 0) {
+                    max = upperBoundOf(b);
+                    break;
+                }
+            }
+
+            return new LatencySummary(count,
+                    count == 0 ? 0 : totalNanos.sum() / count,
+                    percentile(merged, count, 0.50),
+                    percentile(merged, count, 0.99),
+                    percentile(merged, count, 0.999),
+                    max);
+        }
+
+        private static long percentile(long[] merged, long count, double quantile) {
+            if (count == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(quantile * count);
+            long seen = 0;
+            for (int b = 0; b < merged.length; b++) {
+                seen += merged[b];
+                if (seen >= rank) {
+                    return upperBoundOf(b);
+                }
+            }
+            return upperBoundOf(merged.length - 1);
+        }
+    }
+
+    // Point-in-time latency distribution (nanoseconds)
+    static class LatencySummary {
+        final long count;
+        final long meanNanos;
+        final long p50Nanos;
+        final long p99Nanos;
+        final long p999Nanos;
+        final long maxNanos;
+
+        LatencySummary(long count, long meanNanos, long p50Nanos,
+                       long p99Nanos, long p999Nanos, long maxNanos) {
+            this.count = count;
+            this.meanNanos = meanNanos;
+            this.p50Nanos = p50Nanos;
+            this.p99Nanos = p99Nanos;
+            this.p999Nanos = p999Nanos;
+            this.maxNanos = maxNanos;
+        }
+
+        public String toString() {
+            return String.format("n=%d mean=%.3fms p50=%.3fms p99=%.3fms p999=%.3fms max=%.3fms",
+                    count, meanNanos / 1e6, p50Nanos / 1e6, p99Nanos / 1e6,
+                    p999Nanos / 1e6, maxNanos / 1e6);
+        }
+    }
+
+    // Point-in-time view of all counters and histograms
+    static class StatsSnapshot {
+        final long hits;
+        final long misses;
+        final long expiredEvictions;
+        final long lruEvictions;
+        final long refreshes;
+        final LatencySummary hitLatency;
+        final LatencySummary missLatency;
+        final LatencySummary refreshLatency;
+
+        StatsSnapshot(long hits, long misses, long expiredEvictions,
+                      long lruEvictions, long refreshes,
+                      LatencySummary hitLatency, LatencySummary missLatency,
+                      LatencySummary refreshLatency) {
+            this.hits = hits;
+            this.misses = misses;
+            this.expiredEvictions = expiredEvictions;
+            this.lruEvictions = lruEvictions;
+            this.refreshes = refreshes;
+            this.hitLatency = hitLatency;
+            this.missLatency = missLatency;
+            this.refreshLatency = refreshLatency;
+        }
+
+        double hitRate() {
+            long total = hits + misses;
+            return total == 0 ? 0 : ((double) hits / total) * 100;
+        }
+    }
+
+    public StatsSnapshot getStatsSnapshot() {
+        return new StatsSnapshot(hits.sum(), misses.sum(),
+                expiredEvictions.sum(), lruEvictions.sum(), refreshes.sum(),
+                hitLatency.summarize(), missLatency.summarize(),
+                refreshLatency.summarize());
     }
 
     // Cache statistics
     public String getCacheStats() {
-        long totalRequests = hits + misses;
-        double hitRate = totalRequests == 0 ? 0 :
-                ((double) hits / totalRequests) * 100;
+        StatsSnapshot stats = getStatsSnapshot();
+        long totalRequests = stats.hits + stats.misses;
 
         double avgLookupMs = totalRequests == 0 ? 0 :
-                (totalLookupTime / 1_000_000.0) / totalRequests;
+                ((stats.hitLatency.meanNanos * stats.hitLatency.count
+                        + stats.missLatency.meanNanos * stats.missLatency.count)
+                        / 1_000_000.0) / totalRequests;
 
-        return String.format("Hit Rate: %.2f%%, Avg Lookup Time: %.2f ms",
-                hitRate, avgLookupMs);
+        return String.format("Hit Rate: %.2f%%, Avg Lookup Time: %.2f ms%n"
+                        + "  Hits    %s%n  Misses  %s%n  Refresh %s%n"
+                        + "  Evictions: %d expired, %d LRU",
+                stats.hitRate(), avgLookupMs,
+                stats.hitLatency, stats.missLatency, stats.refreshLatency,
+                stats.expiredEvictions, stats.lruEvictions);
+    }
+
+    // N callers each resolving the same M cold domains at once; returns elapsed ms
+    static long concurrentColdResolve(DNSCache dnsCache, int threads, int domains)
+            throws InterruptedException {
+        ExecutorService pool = Executors.newFixedThreadPool(threads * domains);
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(threads * domains);
+
+        for (int t = 0; t < threads; t++) {
+            for (int d = 0; d < domains; d++) {
+                String domain = "cold-" + d + ".example.com";
+                pool.execute(() -> {
+                    try {
+                        start.await();
+                        dnsCache.resolve(domain);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        done.countDown();
+                    }
+                });
+            }
+        }
+
+        long begin = System.nanoTime();
+        start.countDown();
+        done.await();
+        pool.shutdown();
+        return (System.nanoTime() - begin) / 1_000_000;
     }
 
     // Main method for testing
-    public static void main(String[] args) {
+    public static void main(String[] args) throws InterruptedException, IOException {
 
         DNSCache dnsCache = new DNSCache(5);
 
@@ -128,5 +976,131 @@ public class DNSCache {
         System.out.println(dnsCache.resolve("google.com"));
 
         System.out.println(dnsCache.getCacheStats());
+
+        // Concurrency check: N callers per cold domain must share exactly one
+        // upstream query, so N x M cold lookups take ~1 upstream latency
+        int threads = 8, domains = 16;
+        ConcurrentHashMap<String, LongAdder> upstreamCalls = new ConcurrentHashMap<>();
+        DNSCache concurrentCache = new DNSCache(1000, DEFAULT_TTL_SECONDS, 0, 0, domain -> {
+            upstreamCalls.computeIfAbsent(domain, d -> new LongAdder()).increment();
+            return simulatedUpstream(domain);
+        });
+        long elapsedMs = concurrentColdResolve(concurrentCache, threads, domains);
+        if (upstreamCalls.size() != domains) {
+            throw new IllegalStateException("Expected " + domains + " upstream domains, got "
+                    + upstreamCalls.size());
+        }
+        upstreamCalls.forEach((domain, calls) -> {
+            if (calls.sum() != 1) {
+                throw new IllegalStateException(calls.sum() + " upstream queries for " + domain);
+            }
+        });
+        System.out.println("\n" + threads + " threads x " + domains
+                + " cold domains resolved in " + elapsedMs
+                + " ms with one upstream query per domain (serialized would be ~"
+                + (threads * domains * 100) + " ms)");
+        System.out.println(concurrentCache.getCacheStats());
+
+        // Refresh-ahead: hot domain on a 2s TTL, refreshed in the last half
+        DNSCache refreshingCache = new DNSCache(1000, 2, 0.5, 1);
+        refreshingCache.resolve("hot.example.com");
+        long worstNs = 0;
+        long deadline = System.currentTimeMillis() + 5000;
+        while (System.currentTimeMillis() < deadline) {
+            long begin = System.nanoTime();
+            refreshingCache.resolve("hot.example.com");
+            worstNs = Math.max(worstNs, System.nanoTime() - begin);
+            Thread.sleep(5);
+        }
+        System.out.printf("\nHot domain over 5s with 2s TTL: worst lookup %.3f ms%n",
+                worstNs / 1_000_000.0);
+        System.out.println(refreshingCache.getCacheStats());
+
+        // Batch resolve: 40 domains (10 already cached) in ~one upstream round trip
+        DNSCache batchCache = new DNSCache(1000);
+        List<String> batch = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            batch.add("batch-" + i + ".example.com");
+        }
+        batchCache.resolveAll(batch.subList(0, 10));
+        long batchStart = System.nanoTime();
+        Map<String, CompletableFuture<String>> resolved = batchCache.resolveAll(batch, 32);
+        System.out.printf("%nresolveAll: %d domains in %d ms (sequential misses would be ~%d ms)%n",
+                resolved.size(), (System.nanoTime() - batchStart) / 1_000_000, 30 * 100);
+        batchCache.shutdown();
+
+        // One failing domain is reported on its own; 64-way needs a bigger pool
+        DNSCache flakyCache = new DNSCache(1000, DEFAULT_TTL_SECONDS, 0, 0, domain -> {
+            if (domain.startsWith("broken")) throw new IllegalStateException("SERVFAIL " + domain);
+            return simulatedUpstream(domain);
+        });
+        List<String> flakyBatch = new ArrayList<>(batch);
+        flakyBatch.add(7, "broken.example.com");
+        batchStart = System.nanoTime();
+        Map<String, CompletableFuture<String>> flaky = flakyCache.resolveAll(flakyBatch, 64);
+        long flakyMs = (System.nanoTime() - batchStart) / 1_000_000;
+        long failed = flaky.values().stream().filter(CompletableFuture::isCompletedExceptionally).count();
+        if (failed != 1 || !flaky.get("broken.example.com").isCompletedExceptionally()
+                || flaky.get("batch-0.example.com").join() == null) {
+            throw new IllegalStateException("resolveAll: expected exactly the broken domain to fail");
+        }
+        System.out.printf("resolveAll with one failing domain: %d resolved, %d failed, %d ms at 64-way%n",
+                flaky.size() - failed, failed, flakyMs);
+        flakyCache.shutdown();
+        Map<String, CompletableFuture<String>> afterShutdown = flakyCache.resolveAll(
+                Arrays.asList("late-1.example.com", "late-2.example.com"));
+        if (afterShutdown.values().stream().anyMatch(f -> !f.isCompletedExceptionally())) {
+            throw new IllegalStateException("resolveAll after shutdown should fail each domain");
+        }
+
+        // A snapshot whose header overstates its record count is rejected
+        // before anything is sized from it
+        Path corrupt = Files.createTempFile("dns-cache", ".snapshot");
+        try {
+            Files.write(corrupt, ByteBuffer.allocate(SNAPSHOT_HEADER_BYTES + 12)
+                    .putInt(SNAPSHOT_MAGIC).putInt(SNAPSHOT_VERSION).putInt(Integer.MAX_VALUE)
+                    .array());
+            dnsCache.loadSnapshot(corrupt);
+            throw new IllegalStateException("loadSnapshot accepted a corrupt record count");
+        } catch (IOException expected) {
+            System.out.println("Corrupt snapshot rejected: " + expected.getMessage()
+                    .replace(corrupt.toString(), corrupt.getFileName().toString()));
+        } finally {
+            Files.delete(corrupt);
+        }
+
+        dnsCache.shutdown();
+        concurrentCache.shutdown();
+        refreshingCache.shutdown();
+
+        if (Arrays.asList(args).contains("--benchmark")) {
+            benchmarkSnapshot(1_000_000);
+        }
+    }
+
+    // Warm start: snapshot live entries, then load them into a fresh cache
+    static void benchmarkSnapshot(int entries) throws IOException {
+        DNSCache source = new DNSCache(entries);
+        for (int i = 0; i < entries; i++) {
+            source.install(new DNSEntry("host-" + i + ".example.com",
+                    "10." + (i >>> 16 & 255) + "." + (i >>> 8 & 255) + "." + (i & 255),
+                    DEFAULT_TTL_SECONDS));
+        }
+        Path snapshot = Files.createTempFile("dns-cache", ".snapshot");
+        long writeStart = System.nanoTime();
+        int written = source.writeSnapshot(snapshot);
+        long writeMs = (System.nanoTime() - writeStart) / 1_000_000;
+        source.shutdown();
+        source = null;
+
+        DNSCache warmCache = new DNSCache(entries);
+        long loadStart = System.nanoTime();
+        int loaded = warmCache.loadSnapshot(snapshot);
+        long loadMs = (System.nanoTime() - loadStart) / 1_000_000;
+        System.out.printf("%nSnapshot: wrote %d entries (%d MB) in %d ms, loaded %d in %d ms%n",
+                written, Files.size(snapshot) >> 20, writeMs, loaded, loadMs);
+        System.out.println(warmCache.resolve("host-42.example.com"));
+        Files.delete(snapshot);
+        warmCache.shutdown();
     }
-}
\ No newline at end of file
+}
@@ -1,73 +1,508 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.IntConsumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 public class PlagiarismDetector {
 
     // n-gram size
     private static final int N = 5;
 
-    // n-gram -> Set of document IDs
-    private Map<String, Set<String>> ngramIndex;
+    // Winnowing window: one fingerprint is kept per W consecutive n-grams, so
+    // any shared passage of at least W + N - 1 words is still detected
+    private static final int W = 4;
 
-    // documentId -> Set of its n-grams
-    private Map<String, Set<String>> documentNgrams;
+    // Base of the polynomial rolling hash over word hashes
+    private static final long BASE = 0x9E3779B97F4A7C15L;
+    private static final long BASE_POW_N_MINUS_1 = pow(BASE, N - 1);
+
+    // MinHash/LSH: a signature of bands x rows minimum hashes per document;
+    // documents agreeing on every row of any band become candidates. A pair
+    // with Jaccard similarity s is retrieved with probability 1 - (1 - s^rows)^bands.
+    private static final int DEFAULT_BANDS = 32;
+    private static final int DEFAULT_ROWS = 3;
+    private final int bands;
+    private final int rows;
+    private final long[] hashMultipliers;
+    private final long[] hashOffsets;
+
+    // band key -> documents; retrieves near-duplicates of a submission
+    private final PostingIndex bandIndex;
+
+    // winnowed fingerprint -> documents; finds passages shared with an
+    // otherwise different document, which LSH does not retrieve
+    private final PostingIndex passageIndex;
+
+    // Documents taken per fingerprint at query time: a common phrase or a
+    // widely copied passage yields its earliest-stored documents only, so
+    // posting walks do not grow with the corpus while the original of a
+    // copied passage, stored before its copies, stays a candidate
+    private static final int MAX_PASSAGE_POSTINGS = 256;
+
+    // document number -> id and sorted, distinct fingerprints
+    private final DocumentTable documents;
+
+    // Bulk ingest: documents pulled from the source per batch, and documents
+    // per fork/join leaf (one partial index each)
+    private static final int INGEST_BATCH = 16_384;
+    private static final int INGEST_LEAF = 256;
 
     public PlagiarismDetector() {
-        ngramIndex = new HashMap<>();
-        documentNgrams = new HashMap<>();
+        this(DEFAULT_BANDS, DEFAULT_ROWS);
+    }
+
+    // More bands raise recall, more rows per band cut false candidates
+    public PlagiarismDetector(int bands, int rows) {
+        this.bands = bands;
+        this.rows = rows;
+        // One random affine permutation of the 64-bit fingerprints per row
+        Random random = new Random(0x5EED);
+        hashMultipliers = new long[bands * rows];
+        hashOffsets = new long[bands * rows];
+        for (int i = 0; i < hashMultipliers.length; i++) {
+            hashMultipliers[i] = random.nextLong() | 1;
+            hashOffsets[i] = random.nextLong();
+        }
+        bandIndex = new PostingIndex();
+        passageIndex = new PostingIndex();
+        documents = new DocumentTable();
+    }
+
+    // Posting lists from a 64-bit key to document numbers, split into
+    // segments by the key's top bits, each behind a read/write lock, so
+    // queries run while ingestion merges partial indexes segment by segment.
+    // A segment holds sorted runs of (32-bit key tag, document) packed into
+    // longs, 8 bytes a posting; adding a run merges it with the newer runs
+    // no more than four times its size, so a segment has O(log n) runs and
+    // each posting is copied O(log n) times. Keys are stored as 42 bits
+    // (segment and tag), so a lookup can return a few documents that do not
+    // hold the key; callers verify candidates against their exact fingerprints.
+    static final class PostingIndex {
+        private static final int SEGMENT_BITS = 10;
+        private static final int SEGMENTS = 1 << SEGMENT_BITS;
+
+        private static final class Segment {
+            final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+            long[][] runs = new long[0][];   // oldest (largest) first
+        }
+
+        private final Segment[] segments = new Segment[SEGMENTS];
+
+        PostingIndex() {
+            for (int i = 0; i < SEGMENTS; i++) {
+                segments[i] = new Segment();
+            }
+        }
+
+        private static int segment(long key) {
+            return (int) (key >>> (64 - SEGMENT_BITS));
+        }
+
+        private static long posting(long key, int document) {
+            return (key >>> (32 - SEGMENT_BITS)) << 32 | document;
+        }
+
+        // Merge a partial index of (key, document) pairs, taking each
+        // segment's write lock once
+        void addAll(long[] keys, int[] documents, int count) {
+            // (segment, position) packed into one long and sorted by segment
+            long[] order = new long[count];
+            for (int i = 0; i < count; i++) order[i] = ((long) segment(keys[i]) << 32) | i;
+            Arrays.sort(order);
+
+            for (int from = 0; from < count; ) {
+                int segment = (int) (order[from] >>> 32);
+                int to = from;
+                while (to < count && (int) (order[to] >>> 32) == segment) to++;
+
+                long[] run = new long[to - from];
+                for (int i = from; i < to; i++) {
+                    int position = (int) order[i];
+                    run[i - from] = posting(keys[position], documents[position]);
+                }
+                Arrays.sort(run);
+
+                Segment target = segments[segment];
+                target.lock.writeLock().lock();
+                try {
+                    target.runs = push(target.runs, run);
+                } finally {
+                    target.lock.writeLock().unlock();
+                }
+                from = to;
+            }
+        }
+
+        private static long[][] push(long[][] runs, long[] run) {
+            int n = runs.length;
+            while (n > 0 && runs[n - 1].length <= 4 * run.length) {
+                run = merge(runs[n - 1], run);
+                n--;
+            }
+            long[][] next = Arrays.copyOf(runs, n + 1);
+            next[n] = run;
+            return next;
+        }
+
+        private static long[] merge(long[] a, long[] b) {
+            long[] merged = new long[a.length + b.length];
+            int i = 0, j = 0, k = 0;
+            while (i < a.length && j < b.length) {
+                merged[k++] = a[i] <= b[j] ? a[i++] : b[j++];
+            }
+            while (i < a.length) merged[k++] = a[i++];
+            while (j < b.length) merged[k++] = b[j++];
+            return merged;
+        }
+
+        // Documents posted under a key; when there are more than `limit`,
+        // only the `limit` lowest-numbered (earliest stored) ones. Returns
+        // how many were passed to `into`.
+        int collect(long key, int limit, IntConsumer into) {
+            long low = posting(key, 0);
+            long high = low | 0xFFFFFFFFL;
+            Segment segment = segments[segment(key)];
+            segment.lock.readLock().lock();
+            try {
+                long[][] runs = segment.runs;
+                int[] starts = new int[runs.length];
+                int[] ends = new int[runs.length];
+                long total = 0;
+                for (int r = 0; r < runs.length; r++) {
+                    starts[r] = lowerBound(runs[r], low);
+                    ends[r] = upperBound(runs[r], high);
+                    total += ends[r] - starts[r];
+                }
+                if (total <= limit) {
+                    for (int r = 0; r < runs.length; r++) {
+                        for (int p = starts[r]; p < ends[r]; p++) {
+                            into.accept((int) runs[r][p]);
+                        }
+                    }
+                    return (int) total;
+                }
+                // Within a run a key's postings are in document order: take
+                // the smallest head across the runs `limit` times
+                for (int taken = 0; taken < limit; taken++) {
+                    int best = -1;
+                    for (int r = 0; r < runs.length; r++) {
+                        if (starts[r] < ends[r] && (best < 0 || runs[r][starts[r]] < runs[best][starts[best]])) {
+                            best = r;
+                        }
+                    }
+                    into.accept((int) runs[best][starts[best]++]);
+                }
+                return limit;
+            } finally {
+                segment.lock.readLock().unlock();
+            }
+        }
+
+        // First position holding more than value
+        private static int upperBound(long[] run, long value) {
+            int low = 0, high = run.length;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (run[middle] <= value) low = middle + 1;
+                else high = middle;
+            }
+            return low;
+        }
+
+        private static int lowerBound(long[] run, long value) {
+            int low = 0, high = run.length;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (run[middle] < value) low = middle + 1;
+                else high = middle;
+            }
+            return low;
+        }
+
+        long sizeInBytes() {
+            long bytes = 0;
+            for (Segment segment : segments) {
+                segment.lock.readLock().lock();
+                try {
+                    for (long[] run : segment.runs) bytes += 16 + 8L * run.length;
+                } finally {
+                    segment.lock.readLock().unlock();
+                }
+            }
+            return bytes;
+        }
+    }
+
+    // Append-only document store in fixed-size chunks. Numbers are reserved
+    // in blocks; a document is written before any posting pointing at it is
+    // merged, and the segment lock publishes it to readers.
+    static final class DocumentTable {
+        private static final int CHUNK_BITS = 12;
+        private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+
+        private final AtomicInteger reserved = new AtomicInteger();
+        private final AtomicInteger published = new AtomicInteger();
+        private volatile String[][] ids = new String[0][];
+        private volatile long[][][] fingerprints = new long[0][][];
+
+        // First of `count` new document numbers
+        int reserve(int count) {
+            int first = reserved.getAndAdd(count);
+            int chunksNeeded = ((first + count - 1) >>> CHUNK_BITS) + 1;
+            if (chunksNeeded > ids.length) {
+                grow(chunksNeeded);
+            }
+            return first;
+        }
+
+        private synchronized void grow(int chunksNeeded) {
+            int chunks = ids.length;
+            if (chunksNeeded <= chunks) return;
+            String[][] newIds = Arrays.copyOf(ids, chunksNeeded);
+            long[][][] newFingerprints = Arrays.copyOf(fingerprints, chunksNeeded);
+            for (int c = chunks; c < chunksNeeded; c++) {
+                newIds[c] = new String[CHUNK_SIZE];
+                newFingerprints[c] = new long[CHUNK_SIZE][];
+            }
+            fingerprints = newFingerprints;
+            ids = newIds;
+        }
+
+        void set(int document, String id, long[] documentFingerprints) {
+            ids[document >>> CHUNK_BITS][document & (CHUNK_SIZE - 1)] = id;
+            fingerprints[document >>> CHUNK_BITS][document & (CHUNK_SIZE - 1)] = documentFingerprints;
+        }
+
+        String id(int document) {
+            return ids[document >>> CHUNK_BITS][document & (CHUNK_SIZE - 1)];
+        }
+
+        long[] fingerprints(int document) {
+            return fingerprints[document >>> CHUNK_BITS][document & (CHUNK_SIZE - 1)];
+        }
+
+        // Called once `count` reserved documents have been written
+        void publish(int count) {
+            published.addAndGet(count);
+        }
+
+        // Documents written so far; numbers reserved by an ingest still in
+        // flight are not counted
+        int size() {
+            return published.get();
+        }
     }
 
     // Add document to database
     public void addDocument(String documentId, String content) {
-        Set<String> ngrams = generateNgrams(content);
-        documentNgrams.put(documentId, ngrams);
+        PartialIndex partial = new PartialIndex(1, bands);
+        partial.add(documentId, content);
+        partial.mergeInto();
+    }
 
-        for (String ngram : ngrams) {
-            ngramIndex
-                    .computeIfAbsent(ngram, k -> new HashSet<>())
-                    .add(documentId);
+    // Documents fingerprinted by one fork/join leaf, merged in one step
+    private final class PartialIndex {
+        private final String[] ids;
+        private final long[][] fingerprints;
+        private final long[] keys;
+        private final int[] keyDocuments;   // index into ids until merged
+        private int count;
+        private int keyCount;
+        private int fingerprintCount;
+
+        PartialIndex(int capacity, int bands) {
+            ids = new String[capacity];
+            fingerprints = new long[capacity][];
+            keys = new long[capacity * bands];
+            keyDocuments = new int[capacity * bands];
+        }
+
+        void add(String documentId, String content) {
+            long[] selected = fingerprint(content).selected;
+            if (selected.length > 0) {
+                for (long key : bandKeys(selected)) {
+                    keys[keyCount] = key;
+                    keyDocuments[keyCount++] = count;
+                }
+            }
+            ids[count] = documentId;
+            fingerprints[count++] = selected;
+            fingerprintCount += selected.length;
+        }
+
+        void mergeInto() {
+            if (count == 0) return;
+            int first = documents.reserve(count);
+            for (int i = 0; i < count; i++) {
+                documents.set(first + i, ids[i], fingerprints[i]);
+            }
+            documents.publish(count);
+            for (int i = 0; i < keyCount; i++) {
+                keyDocuments[i] += first;
+            }
+            bandIndex.addAll(keys, keyDocuments, keyCount);
+
+            long[] passageKeys = new long[fingerprintCount];
+            int[] passageDocuments = new int[fingerprintCount];
+            int p = 0;
+            for (int i = 0; i < count; i++) {
+                for (long fingerprint : fingerprints[i]) {
+                    passageKeys[p] = fingerprint;
+                    passageDocuments[p++] = first + i;
+                }
+            }
+            passageIndex.addAll(passageKeys, passageDocuments, p);
         }
     }
 
-    // Analyze document for plagiarism
-    public void analyzeDocument(String documentId, String content) {
+    // Reads one bulk-ingest item as {documentId, content}
+    private interface DocumentReader<T> {
+        String[] read(T item) throws IOException;
+    }
+
+    // Fork/join over one batch: leaves fingerprint INGEST_LEAF documents into
+    // a partial index and merge it; documents become searchable leaf by leaf
+    private final class IngestTask<T> extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
 
-        Set<String> newDocNgrams = generateNgrams(content);
-        Map<String, Integer> matchCount = new HashMap<>();
+        private final List<T> items;
+        private final int from, to;
+        private final DocumentReader<T> reader;
+
+        IngestTask(List<T> items, int from, int to, DocumentReader<T> reader) {
+            this.items = items;
+            this.from = from;
+            this.to = to;
+            this.reader = reader;
+        }
 
-        for (String ngram : newDocNgrams) {
-            if (ngramIndex.containsKey(ngram)) {
-                for (String docId : ngramIndex.get(ngram)) {
-                    matchCount.put(docId,
-                            matchCount.getOrDefault(docId, 0) + 1);
+        @Override
+        protected void compute() {
+            if (to - from > INGEST_LEAF) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new IngestTask<>(items, from, middle, reader),
+                        new IngestTask<>(items, middle, to, reader));
+                return;
+            }
+            PartialIndex partial = new PartialIndex(to - from, bands);
+            try {
+                for (int i = from; i < to; i++) {
+                    String[] document = reader.read(items.get(i));
+                    partial.add(document[0], document[1]);
                 }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            partial.mergeInto();
+        }
+    }
+
+    // Index every regular file under a directory, in parallel; the document
+    // id is the file's path relative to the directory. Files are read as
+    // UTF-8 with malformed bytes replaced, so one file in another encoding
+    // does not abort the ingest.
+    public void bulkIngest(Path directory) throws IOException {
+        List<Path> files;
+        try (Stream<Path> walk = Files.walk(directory)) {
+            files = walk.filter(Files::isRegularFile).collect(Collectors.toList());
+        }
+        try {
+            for (int from = 0; from < files.size(); from += INGEST_BATCH) {
+                List<Path> batch = files.subList(from, Math.min(files.size(), from + INGEST_BATCH));
+                ForkJoinPool.commonPool().invoke(new IngestTask<>(batch, 0, batch.size(),
+                        file -> new String[]{directory.relativize(file).toString(),
+                                new String(Files.readAllBytes(file), StandardCharsets.UTF_8)}));
             }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
         }
+    }
 
-        System.out.println("Extracted " + newDocNgrams.size() + " n-grams");
+    // Index a stream of (documentId, content) pairs, in parallel batches
+    public void bulkIngest(Stream<? extends Map.Entry<String, String>> source) {
+        Iterator<? extends Map.Entry<String, String>> iterator = source.iterator();
+        List<Map.Entry<String, String>> batch = new ArrayList<>(INGEST_BATCH);
+        while (iterator.hasNext()) {
+            batch.add(iterator.next());
+            if (batch.size() == INGEST_BATCH || !iterator.hasNext()) {
+                ForkJoinPool.commonPool().invoke(new IngestTask<>(batch, 0, batch.size(),
+                        entry -> new String[]{entry.getKey(), entry.getValue()}));
+                batch = new ArrayList<>(INGEST_BATCH);
+            }
+        }
+    }
 
-        String mostSimilarDoc = null;
-        double highestSimilarity = 0;
+    // One stored document sharing fingerprints with a submission
+    static final class Match {
+        final String documentId;
+        final int matches;
+        final double similarity;
 
-        for (Map.Entry<String, Integer> entry : matchCount.entrySet()) {
-            String comparedDoc = entry.getKey();
-            int matches = entry.getValue();
+        Match(String documentId, int matches, double similarity) {
+            this.documentId = documentId;
+            this.matches = matches;
+            this.similarity = similarity;
+        }
+    }
 
-            int totalNgrams = documentNgrams.get(comparedDoc).size();
-            double similarity = (matches * 100.0) / totalNgrams;
+    // Stored documents sharing fingerprints with a submission, with their
+    // exact overlap, most similar first. Candidates are the LSH near-duplicates
+    // plus every document posted under one of the submission's fingerprints
+    // (common phrases aside), so a copied passage is found even when the rest
+    // of the two texts differ.
+    List<Match> findMatches(Fingerprints submission) {
+        List<Match> result = new ArrayList<>();
+        if (submission.selected.length == 0) {
+            return result;
+        }
 
-            System.out.println("→ Found " + matches +
-                    " matching n-grams with \"" + comparedDoc + "\"");
-            System.out.printf("→ Similarity: %.2f%%\n", similarity);
+        Set<Integer> candidates = new HashSet<>();
+        for (long key : bandKeys(submission.selected)) {
+            bandIndex.collect(key, Integer.MAX_VALUE, candidates::add);
+        }
+        for (long fingerprint : submission.selected) {
+            passageIndex.collect(fingerprint, MAX_PASSAGE_POSTINGS, candidates::add);
+        }
 
-            if (similarity > highestSimilarity) {
-                highestSimilarity = similarity;
-                mostSimilarDoc = comparedDoc;
+        for (int document : candidates) {
+            long[] stored = documents.fingerprints(document);
+            int matches = overlap(submission.selected, stored);
+            if (matches > 0) {
+                result.add(new Match(documents.id(document), matches,
+                        (matches * 100.0) / stored.length));
             }
         }
+        result.sort((a, b) -> Double.compare(b.similarity, a.similarity));
+        return result;
+    }
+
+    // Analyze document for plagiarism
+    public void analyzeDocument(String documentId, String content) {
+
+        Fingerprints submission = fingerprint(content);
+        List<Match> matches = findMatches(submission);
+
+        System.out.println("Extracted " + submission.ngrams + " n-grams ("
+                + submission.selected.length + " fingerprints after winnowing)");
+
+        for (Match match : matches) {
+            System.out.println("→ Found " + match.matches +
+                    " matching fingerprints with \"" + match.documentId + "\"");
+            System.out.printf("→ Similarity: %.2f%%\n", match.similarity);
+        }
 
-        if (mostSimilarDoc != null) {
-            System.out.println("\nMost Similar Document: " + mostSimilarDoc);
-            if (highestSimilarity > 50) {
+        if (!matches.isEmpty()) {
+            System.out.println("\nMost Similar Document: " + matches.get(0).documentId);
+            if (matches.get(0).similarity > 50) {
                 System.out.println("PLAGIARISM DETECTED");
             }
         } else {
@@ -75,8 +510,147 @@ public class PlagiarismDetector {
         }
     }
 
-    // Generate n-grams from content
-    private Set<String> generateNgrams(String content) {
+    // MinHash signature folded into one key per band
+    private long[] bandKeys(long[] fingerprints) {
+        long[] keys = new long[bands];
+        for (int band = 0; band < bands; band++) {
+            long key = band * 0x9E3779B97F4A7C15L;
+            for (int row = 0; row < rows; row++) {
+                int h = band * rows + row;
+                long min = Long.MAX_VALUE;
+                for (long fingerprint : fingerprints) {
+                    long value = fingerprint * hashMultipliers[h] + hashOffsets[h];
+                    if (value < min) min = value;
+                }
+                key = mix(key ^ min) + row;
+            }
+            keys[band] = key == 0 ? 1 : key;
+        }
+        return keys;
+    }
+
+    // Size of the intersection of two sorted, distinct arrays
+    private static int overlap(long[] a, long[] b) {
+        int i = 0, j = 0, common = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j]) i++;
+            else if (a[i] > b[j]) j++;
+            else {
+                common++;
+                i++;
+                j++;
+            }
+        }
+        return common;
+    }
+
+    // Winnowed fingerprints of one text and the number of n-grams they came from
+    static final class Fingerprints {
+        final long[] selected;   // sorted, distinct
+        final int ngrams;
+
+        Fingerprints(long[] selected, int ngrams) {
+            this.selected = selected;
+            this.ngrams = ngrams;
+        }
+    }
+
+    // Hash each n-gram of words with a rolling hash, then winnow. Words are
+    // lower-cased a-z0-9 runs (other characters are dropped, as before) and
+    // are hashed char by char, so no String is built per word or n-gram.
+    static Fingerprints fingerprint(String content) {
+        long[] ngramHashes = new long[16];
+        int ngrams = 0;
+
+        long[] window = new long[N];   // word hashes of the current n-gram
+        int words = 0;
+        long rolling = 0;
+
+        long word = 0xcbf29ce484222325L;
+        boolean inWord = false;
+        for (int i = 0; i <= content.length(); i++) {
+            char c = i < content.length() ? Character.toLowerCase(content.charAt(i)) : ' ';
+            if ((c >= 'a' && c <= 'z') || (c >= '0' && c <= '9')) {
+                word = (word ^ c) * 0x100000001b3L;
+                inWord = true;
+            } else if (Character.isWhitespace(c) && inWord) {
+                long wordHash = mix(word);
+                if (words >= N) {
+                    rolling -= window[words % N] * BASE_POW_N_MINUS_1;
+                }
+                rolling = rolling * BASE + wordHash;
+                window[words % N] = wordHash;
+                words++;
+
+                if (words >= N) {
+                    if (ngrams == ngramHashes.length) {
+                        ngramHashes = Arrays.copyOf(ngramHashes, ngrams * 2);
+                    }
+                    long hash = mix(rolling);
+                    ngramHashes[ngrams++] = hash == 0 ? 1 : hash;
+                }
+                word = 0xcbf29ce484222325L;
+                inWord = false;
+            }
+        }
+
+        return new Fingerprints(winnow(ngramHashes, ngrams), ngrams);
+    }
+
+    // Keep the minimum hash of every window of W n-grams (rightmost on ties);
+    // texts shorter than one window keep all their n-grams
+    private static long[] winnow(long[] hashes, int count) {
+        long[] selected;
+        int kept = 0;
+        if (count <= W) {
+            selected = Arrays.copyOf(hashes, count);
+            kept = count;
+        } else {
+            selected = new long[count];
+            int minIndex = -1;
+            for (int end = W - 1; end < count; end++) {
+                int start = end - W + 1;
+                if (minIndex < start) {
+                    minIndex = start;
+                    for (int i = start + 1; i <= end; i++) {
+                        if (hashes[i] <= hashes[minIndex]) minIndex = i;
+                    }
+                    selected[kept++] = hashes[minIndex];
+                } else if (hashes[end] <= hashes[minIndex]) {
+                    minIndex = end;
+                    selected[kept++] = hashes[minIndex];
+                }
+            }
+        }
+
+        Arrays.sort(selected, 0, kept);
+        int distinct = 0;
+        for (int i = 0; i < kept; i++) {
+            if (distinct == 0 || selected[i] != selected[distinct - 1]) {
+                selected[distinct++] = selected[i];
+            }
+        }
+        return Arrays.copyOf(selected, distinct);
+    }
+
+    // murmur3 fmix64
+    private static long mix(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    private static long pow(long base, int exponent) {
+        long result = 1;
+        for (int i = 0; i < exponent; i++) result *= base;
+        return result;
+    }
+
+    // Previous scheme, kept for comparison: one String per 5-word n-gram
+    private static Set<String> stringNgrams(String content) {
         Set<String> ngrams = new HashSet<>();
 
         String[] words = content
@@ -95,8 +669,323 @@ public class PlagiarismDetector {
         return ngrams;
     }
 
+    // Essays of `length` words from a 5000-word vocabulary; every tenth essay
+    // copies a 60-word passage from an earlier one
+    static List<String> generateCorpus(int documents, int length, long seed) {
+        Random random = new Random(seed);
+        String[] vocabulary = new String[5000];
+        for (int i = 0; i < vocabulary.length; i++) {
+            vocabulary[i] = Long.toString(random.nextLong() & Long.MAX_VALUE, 36).substring(0, 3 + random.nextInt(6));
+        }
+
+        List<String> corpus = new ArrayList<>(documents);
+        for (int d = 0; d < documents; d++) {
+            String[] words = new String[length];
+            for (int i = 0; i < length; i++) {
+                words[i] = vocabulary[(int) Math.pow(vocabulary.length, random.nextDouble())];
+            }
+            if (d % 10 == 9) {
+                String[] source = corpus.get(random.nextInt(d)).split(" ");
+                int from = random.nextInt(length - 60);
+                System.arraycopy(source, from, words, random.nextInt(length - 60), 60);
+            }
+            corpus.add(String.join(" ", words));
+        }
+        return corpus;
+    }
+
+    // Index heap and build/query time: String n-grams vs. winnowed fingerprints
+    static void benchmarkIndex() {
+        List<String> corpus = generateCorpus(3_000, 500, 42);
+        Runtime runtime = Runtime.getRuntime();
+
+        System.gc();
+        long before = runtime.totalMemory() - runtime.freeMemory();
+        long start = System.nanoTime();
+        Map<String, Set<Integer>> stringIndex = new HashMap<>();
+        for (int d = 0; d < corpus.size(); d++) {
+            for (String ngram : stringNgrams(corpus.get(d))) {
+                stringIndex.computeIfAbsent(ngram, k -> new HashSet<>()).add(d);
+            }
+        }
+        long stringMillis = (System.nanoTime() - start) / 1_000_000;
+        System.gc();
+        long stringBytes = runtime.totalMemory() - runtime.freeMemory() - before;
+        int stringKeys = stringIndex.size();
+        stringIndex = null;
+
+        start = System.nanoTime();
+        PlagiarismDetector detector = new PlagiarismDetector();
+        for (int d = 0; d < corpus.size(); d++) {
+            detector.addDocument("doc_" + d, corpus.get(d));
+        }
+        long fingerprintMillis = (System.nanoTime() - start) / 1_000_000;
+        long fingerprintBytes = detector.bandIndex.sizeInBytes() + detector.passageIndex.sizeInBytes();
+        for (int d = 0; d < detector.documents.size(); d++) {
+            fingerprintBytes += 16 + 8L * detector.documents.fingerprints(d).length;
+        }
+
+        System.out.printf("Index of %,d essays: String n-grams %d MB (%,d keys) in %d ms; " +
+                        "winnowed fingerprints, passage postings + LSH bands %d MB in %d ms%n",
+                corpus.size(), stringBytes >> 20, stringKeys, stringMillis,
+                fingerprintBytes >> 20, fingerprintMillis);
+
+        // Query cost of fingerprinting alone, the part analyzeDocument repeats
+        start = System.nanoTime();
+        int sink = 0;
+        for (int d = 0; d < 2000; d++) sink += stringNgrams(corpus.get(d)).size();
+        long stringQuery = System.nanoTime() - start;
+        start = System.nanoTime();
+        for (int d = 0; d < 2000; d++) sink += fingerprint(corpus.get(d)).selected.length;
+        long fingerprintQuery = System.nanoTime() - start;
+        System.out.printf("Per essay: String n-grams %d us, fingerprints %d us (%d)%n",
+                stringQuery / 2000 / 1000, fingerprintQuery / 2000 / 1000, sink % 10);
+    }
+
+    private static String[] generateVocabulary(Random random) {
+        String[] vocabulary = new String[5000];
+        for (int i = 0; i < vocabulary.length; i++) {
+            vocabulary[i] = Long.toString(random.nextLong() & Long.MAX_VALUE, 36).substring(0, 3 + random.nextInt(6));
+        }
+        return vocabulary;
+    }
+
+    // Deterministic essay d of a generated corpus, so queries can rebuild it
+    private static String[] corpusWords(String[] vocabulary, long d, int length) {
+        SplittableRandom random = new SplittableRandom(mix(d + 1));
+        String[] words = new String[length];
+        for (int i = 0; i < length; i++) {
+            words[i] = vocabulary[(int) Math.pow(vocabulary.length, random.nextDouble())];
+        }
+        return words;
+    }
+
+    // Near-duplicate search over `documents` essays: queries are copies of
+    // stored essays with a share of words replaced. Recall is the share of
+    // queries whose source essay is among the matches.
+    static void benchmarkLsh(int documents, int bands, int rows, double[] editRates) {
+        Random random = new Random(7);
+        String[] vocabulary = generateVocabulary(random);
+        int length = 100;
+
+        PlagiarismDetector detector = new PlagiarismDetector(bands, rows);
+        long start = System.nanoTime();
+        for (int d = 0; d < documents; d++) {
+            detector.addDocument("doc_" + d, String.join(" ", corpusWords(vocabulary, d, length)));
+        }
+        System.out.printf("LSH %dx%d: indexed %,d essays in %d ms%n",
+                bands, rows, documents, (System.nanoTime() - start) / 1_000_000);
+
+        int queries = 1000;
+        for (double editRate : editRates) {
+            long[] latencies = new long[queries];
+            int found = 0, ranked = 0;
+            long candidates = 0;
+            for (int q = 0; q < queries; q++) {
+                int source = random.nextInt(documents);
+                String[] words = corpusWords(vocabulary, source, length);
+                for (int i = 0; i < length; i++) {
+                    if (random.nextDouble() < editRate) words[i] = vocabulary[random.nextInt(vocabulary.length)];
+                }
+                String text = String.join(" ", words);
+
+                long t0 = System.nanoTime();
+                Fingerprints submission = fingerprint(text);
+                List<Match> matches = detector.findMatches(submission);
+                latencies[q] = System.nanoTime() - t0;
+
+                candidates += matches.size();
+                for (Match match : matches) {
+                    if (match.documentId.equals("doc_" + source)) found++;
+                }
+                if (!matches.isEmpty() && matches.get(0).documentId.equals("doc_" + source)) ranked++;
+            }
+            Arrays.sort(latencies);
+            System.out.printf("  %2.0f%% words edited: recall %.1f%% (ranked first %.1f%%), " +
+                            "%.1f matches/query, p50 %d us, p99 %d us%n",
+                    editRate * 100, found * 100.0 / queries, ranked * 100.0 / queries,
+                    candidates / (double) queries,
+                    latencies[queries / 2] / 1000, latencies[queries * 99 / 100] / 1000);
+        }
+
+        // Exhaustive overlap against every stored essay, for comparison
+        Fingerprints probe = fingerprint(String.join(" ", corpusWords(vocabulary, 0, length)));
+        start = System.nanoTime();
+        int best = 0;
+        for (int d = 0; d < detector.documents.size(); d++) {
+            best = Math.max(best, overlap(probe.selected, detector.documents.fingerprints(d)));
+        }
+        System.out.printf("  exhaustive scan of one query: %d ms (best overlap %d)%n",
+                (System.nanoTime() - start) / 1_000_000, best);
+    }
+
+    // Partial copies: each query is a new essay with one passage copied from
+    // a stored essay. Recall is the share of queries whose source essay is
+    // among the matches.
+    static void benchmarkPassages(int documents, int[] passageLengths) {
+        Random random = new Random(11);
+        String[] vocabulary = generateVocabulary(random);
+        int length = 500;
+
+        PlagiarismDetector detector = new PlagiarismDetector();
+        for (int d = 0; d < documents; d++) {
+            detector.addDocument("doc_" + d, String.join(" ", corpusWords(vocabulary, d, length)));
+        }
+
+        int queries = 200;
+        for (int passage : passageLengths) {
+            long[] latencies = new long[queries];
+            int found = 0, ranked = 0;
+            long candidates = 0;
+            for (int q = 0; q < queries; q++) {
+                int source = random.nextInt(documents);
+                String[] words = corpusWords(vocabulary, documents + q + (long) passage * queries, length);
+                System.arraycopy(corpusWords(vocabulary, source, length), random.nextInt(length - passage),
+                        words, random.nextInt(length - passage), passage);
+                String text = String.join(" ", words);
+
+                long t0 = System.nanoTime();
+                List<Match> matches = detector.findMatches(fingerprint(text));
+                latencies[q] = System.nanoTime() - t0;
+
+                candidates += matches.size();
+                for (Match match : matches) {
+                    if (match.documentId.equals("doc_" + source)) found++;
+                }
+                if (!matches.isEmpty() && matches.get(0).documentId.equals("doc_" + source)) ranked++;
+            }
+            Arrays.sort(latencies);
+            System.out.printf("Passage of %d words in %d-word essays over %,d stored: found %d/%d " +
+                            "(ranked first %d), %.1f matches/query, p50 %d us, p99 %d us%n",
+                    passage, length, documents, found, queries, ranked, candidates / (double) queries,
+                    latencies[queries / 2] / 1000, latencies[queries * 99 / 100] / 1000);
+        }
+    }
+
+    // Thread querying a detector for essays of the corpus until interrupted;
+    // counts[0] = queries answered, counts[1] = queries that found their essay
+    private static Thread startQuerier(PlagiarismDetector detector, String[] vocabulary,
+                                       int count, int length, AtomicInteger[] counts) {
+        Thread querier = new Thread(() -> {
+            Random random = new Random(3);
+            while (!Thread.currentThread().isInterrupted()) {
+                int d = random.nextInt(count);
+                Fingerprints probe = fingerprint(String.join(" ", corpusWords(vocabulary, d, length)));
+                List<Match> matches = detector.findMatches(probe);
+                counts[0].incrementAndGet();
+                if (!matches.isEmpty() && matches.get(0).documentId.equals("doc_" + d)) counts[1].incrementAndGet();
+            }
+        });
+        querier.start();
+        return querier;
+    }
+
+    // A 60-word passage copied into `copies` stored essays after its source,
+    // then into a new submission: the source must still be a match however
+    // often the passage has been copied
+    static void copiedPassageCheck(int copies) {
+        Random random = new Random(13);
+        String[] vocabulary = generateVocabulary(random);
+        int length = 300;
+        String[] sourceWords = corpusWords(vocabulary, 0, length);
+        String[] passage = Arrays.copyOfRange(sourceWords, 100, 160);
+
+        PlagiarismDetector detector = new PlagiarismDetector();
+        detector.addDocument("source", String.join(" ", sourceWords));
+        for (int c = 1; c <= copies; c++) {
+            String[] words = corpusWords(vocabulary, c, length);
+            System.arraycopy(passage, 0, words, random.nextInt(length - passage.length), passage.length);
+            detector.addDocument("copy_" + c, String.join(" ", words));
+        }
+
+        String[] submission = corpusWords(vocabulary, copies + 1, length);
+        System.arraycopy(passage, 0, submission, 40, passage.length);
+        List<Match> matches = detector.findMatches(fingerprint(String.join(" ", submission)));
+        boolean found = false;
+        for (Match match : matches) {
+            found |= match.documentId.equals("source");
+        }
+        if (!found) {
+            throw new IllegalStateException("source of a passage copied " + copies + " times not found");
+        }
+        System.out.printf("Passage copied into %d essays: source found among %d matches%n",
+                copies, matches.size());
+    }
+
+    // Sequential addDocument vs. parallel bulkIngest, each with one thread
+    // querying the detector while it ingests, then a directory ingest
+    static void benchmarkIngest(int count) throws IOException, InterruptedException {
+        String[] vocabulary = generateVocabulary(new Random(7));
+        int length = 100;
+
+        PlagiarismDetector sequential = new PlagiarismDetector();
+        AtomicInteger[] sequentialQueries = {new AtomicInteger(), new AtomicInteger()};
+        Thread querier = startQuerier(sequential, vocabulary, count, length, sequentialQueries);
+        long start = System.nanoTime();
+        for (int d = 0; d < count; d++) {
+            sequential.addDocument("doc_" + d, String.join(" ", corpusWords(vocabulary, d, length)));
+        }
+        long sequentialMillis = (System.nanoTime() - start) / 1_000_000;
+        querier.interrupt();
+        querier.join();
+
+        PlagiarismDetector parallel = new PlagiarismDetector();
+        AtomicInteger[] parallelQueries = {new AtomicInteger(), new AtomicInteger()};
+        querier = startQuerier(parallel, vocabulary, count, length, parallelQueries);
+        start = System.nanoTime();
+        parallel.bulkIngest(java.util.stream.IntStream.range(0, count).mapToObj(d ->
+                new AbstractMap.SimpleImmutableEntry<>("doc_" + d,
+                        String.join(" ", corpusWords(vocabulary, d, length)))));
+        long parallelMillis = (System.nanoTime() - start) / 1_000_000;
+        querier.interrupt();
+        querier.join();
+
+        int agree = 0;
+        Random random = new Random(5);
+        for (int q = 0; q < 500; q++) {
+            Fingerprints probe = fingerprint(String.join(" ", corpusWords(vocabulary, random.nextInt(count), length)));
+            List<Match> a = sequential.findMatches(probe);
+            List<Match> b = parallel.findMatches(probe);
+            if (a.size() == b.size() && (a.isEmpty() || a.get(0).documentId.equals(b.get(0).documentId))) agree++;
+        }
+        System.out.printf("Ingest %,d essays on %d threads, one querier each: addDocument %d ms " +
+                        "(%d queries, %d found their essay), bulkIngest %d ms (%d queries, %d found); " +
+                        "%d/500 queries agree after%n",
+                count, ForkJoinPool.commonPool().getParallelism(),
+                sequentialMillis, sequentialQueries[0].get(), sequentialQueries[1].get(),
+                parallelMillis, parallelQueries[0].get(), parallelQueries[1].get(), agree);
+
+        // Directory walk
+        Path directory = Files.createTempDirectory("essays");
+        try {
+            for (int d = 0; d < 2000; d++) {
+                Files.writeString(directory.resolve("essay_" + d + ".txt"),
+                        String.join(" ", corpusWords(vocabulary, d, length)));
+            }
+            // One Latin-1 file, which is not valid UTF-8
+            Files.write(directory.resolve("essay_latin1.txt"),
+                    "Caf\u00e9 cr\u00e8me na\u00efve r\u00e9sum\u00e9 essay".getBytes(StandardCharsets.ISO_8859_1));
+            PlagiarismDetector fromFiles = new PlagiarismDetector();
+            start = System.nanoTime();
+            fromFiles.bulkIngest(directory);
+            long directoryMillis = (System.nanoTime() - start) / 1_000_000;
+            if (fromFiles.documents.size() != 2001) {
+                throw new IllegalStateException("expected 2001 files, indexed " + fromFiles.documents.size());
+            }
+            System.out.printf("Directory ingest of %d files: %d ms%n",
+                    fromFiles.documents.size(), directoryMillis);
+            fromFiles.analyzeDocument("submission.txt", String.join(" ", corpusWords(vocabulary, 42, length)));
+        } finally {
+            try (Stream<Path> files = Files.walk(directory)) {
+                for (Path file : files.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                    Files.delete(file);
+                }
+            }
+        }
+    }
+
     // Main method for testing
-    public static void main(String[] args) {
+    public static void main(String[] args) throws IOException, InterruptedException {
 
         PlagiarismDetector detector = new PlagiarismDetector();
 
@@ -117,5 +1006,22 @@ public class PlagiarismDetector {
                 + "by enabling machines to learn from data and improve over time.";
 
         detector.analyzeDocument("essay_123.txt", newSubmission);
+
+        copiedPassageCheck(250);
+        copiedPassageCheck(1000);
+
+        if (Arrays.asList(args).contains("--benchmark")) {
+            benchmarkIndex();
+
+            double[] editRates = {0.05, 0.10, 0.20};
+            benchmarkLsh(100_000, 16, 4, editRates);
+            benchmarkLsh(100_000, 32, 3, editRates);
+            benchmarkLsh(100_000, 64, 2, editRates);
+            benchmarkLsh(1_000_000, 16, 3, editRates);
+
+            benchmarkPassages(50_000, new int[]{50, 100, 250});
+
+            benchmarkIngest(200_000);
+        }
     }
-}
\ No newline at end of file
+}
@@ -1,21 +1,119 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
 
 public class RealTimeAnalyticsDashboard {
 
-    // pageUrl -> total visit count
-    private ConcurrentHashMap<String, Integer> pageVisits;
+    // Default unique-visitor error target (~1.6% -> 4096 registers, 4 KB)
+    private static final double DEFAULT_UNIQUE_ERROR = 0.0163;
+    private final int hllPrecision;
 
-    // pageUrl -> set of unique users
-    private ConcurrentHashMap<String, Set<String>> uniqueVisitors;
+    // Most viewed pages, maintained incrementally as events arrive; each
+    // shard tracks HEAVY_HITTER_CAPACITY counters in total
+    private static final int TOP_PAGES = 10;
+    private static final int HEAVY_HITTER_CAPACITY = 1000;
 
-    // traffic source -> count
-    private ConcurrentHashMap<String, Integer> sourceCounts;
+    // Heavy-hitter summaries per shard in direct mode, where every producer
+    // thread updates the single shard; URLs are partitioned across them by
+    // hash and the capacity is split between them (62 or 63 counters each).
+    // The Space-Saving bound then holds per stripe: a stripe with m_i
+    // counters that saw N_i of the events overestimates by at most N_i/m_i.
+    // That is about N/1000 while hashing spreads traffic evenly, and looser
+    // for a stripe that receives more than its share.
+    private static final int HEAVY_HITTER_STRIPES = 16;
+
+    // Events a shard worker applies per drain of its queue
+    private static final int INGEST_BATCH = 256;
+
+    // Aggregates, partitioned by URL hash. In direct mode there is one shard
+    // updated by the calling threads; in sharded mode each shard is fed by a
+    // bounded queue and updated only by its own worker thread.
+    private final Shard[] shards;
+    private final boolean sharded;
+    private final boolean dropWhenFull;
+
+    private final LongSupplier clock;
+    private final ScheduledExecutorService scheduler;
+
+    // Immutable dashboard state republished every publishIntervalMillis;
+    // subscribers receive the deltas between consecutive snapshots
+    private static final long DEFAULT_PUBLISH_INTERVAL_MS = 5000;
+    private final long publishIntervalMillis;
+    private final SubmissionPublisher<DashboardDelta> publisher = new SubmissionPublisher<>();
+    private final Object publishLock = new Object();
+    // Serializes publishers so deltas are offered in version order;
+    // subscribe() only needs publishLock and never waits on a slow offer
+    private final Object offerLock = new Object();
+    // How long a delta waits for a full subscriber buffer before that
+    // subscriber is cut off and told to resubscribe
+    private static final long SUBSCRIBER_TIMEOUT_MS = 1000;
+    private volatile DashboardSnapshot snapshot = DashboardSnapshot.EMPTY;
 
     public RealTimeAnalyticsDashboard() {
-        pageVisits = new ConcurrentHashMap<>();
-        uniqueVisitors = new ConcurrentHashMap<>();
-        sourceCounts = new ConcurrentHashMap<>();
+        this(DEFAULT_UNIQUE_ERROR);
+    }
+
+    // uniqueErrorTarget: relative standard error of unique-visitor counts
+    public RealTimeAnalyticsDashboard(double uniqueErrorTarget) {
+        this(uniqueErrorTarget, DEFAULT_PUBLISH_INTERVAL_MS);
+    }
+
+    public RealTimeAnalyticsDashboard(double uniqueErrorTarget, long publishIntervalMillis) {
+        this(uniqueErrorTarget, 0, 0, false, publishIntervalMillis, System::currentTimeMillis);
+    }
+
+    RealTimeAnalyticsDashboard(double uniqueErrorTarget, LongSupplier clock) {
+        this(uniqueErrorTarget, 0, 0, false, DEFAULT_PUBLISH_INTERVAL_MS, clock);
+    }
+
+    // Sharded ingestion: events are queued to one of shardCount single-writer
+    // workers; when a queue is full the producer blocks, or the event is
+    // dropped and counted if dropWhenFull is set
+    public RealTimeAnalyticsDashboard(int shardCount, int queueCapacity, boolean dropWhenFull) {
+        this(shardCount, queueCapacity, dropWhenFull, DEFAULT_PUBLISH_INTERVAL_MS);
+    }
+
+    public RealTimeAnalyticsDashboard(int shardCount, int queueCapacity, boolean dropWhenFull,
+                                      long publishIntervalMillis) {
+        this(DEFAULT_UNIQUE_ERROR, shardCount, queueCapacity, dropWhenFull,
+                publishIntervalMillis, System::currentTimeMillis);
+    }
+
+    RealTimeAnalyticsDashboard(double uniqueErrorTarget, int shardCount, int queueCapacity,
+                               boolean dropWhenFull, long publishIntervalMillis,
+                               LongSupplier clock) {
+        this.clock = clock;
+        this.publishIntervalMillis = publishIntervalMillis;
+        this.hllPrecision = HyperLogLog.precisionFor(uniqueErrorTarget);
+        this.sharded = shardCount > 0;
+        this.dropWhenFull = dropWhenFull;
+
+        this.shards = new Shard[sharded ? shardCount : 1];
+        for (int i = 0; i < shards.length; i++) {
+            shards[i] = new Shard(hllPrecision, sharded ? queueCapacity : 0);
+        }
+        if (sharded) {
+            for (int i = 0; i < shards.length; i++) {
+                shards[i].start("dashboard-shard-" + i, clock);
+            }
+        }
+
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "dashboard-publisher");
+            thread.setDaemon(true);
+            return thread;
+        });
         startDashboardUpdater();
     }
 
@@ -32,75 +130,1456 @@ public class RealTimeAnalyticsDashboard {
         }
     }
 
-    // Process incoming event (O(1))
+    // HyperLogLog cardinality sketch: 2^precision one-byte registers packed
+    // eight per long, updated with CAS so concurrent adds are safe
+    static class HyperLogLog {
+        private final int precision;
+        private final AtomicLongArray words;
+
+        HyperLogLog(int precision) {
+            if (precision < 4 || precision > 18) {
+                throw new IllegalArgumentException("precision must be in [4, 18]: " + precision);
+            }
+            this.precision = precision;
+            this.words = new AtomicLongArray((1 << precision) / 8);
+        }
+
+        // Smallest precision whose standard error 1.04/sqrt(m) meets the target
+        static int precisionFor(double relativeError) {
+            double registers = Math.pow(1.04 / relativeError, 2);
+            int precision = (int) Math.ceil(Math.log(registers) / Math.log(2));
+            return Math.max(4, Math.min(18, precision));
+        }
+
+        void add(String value) {
+            addHash(hash64(value));
+        }
+
+        void addHash(long hash) {
+            int index = (int) (hash >>> (64 - precision));
+            // Sentinel bit caps the rank at 64 - precision + 1
+            long rest = (hash << precision) | (1L << (precision - 1));
+            setMax(index, Long.numberOfLeadingZeros(rest) + 1);
+        }
+
+        private void setMax(int index, int rank) {
+            int word = index >>> 3;
+            int shift = (index & 7) * 8;
+            while (true) {
+                long current = words.get(word);
+                int existing = (int) (current >>> shift) & 0xFF;
+                if (existing >= rank) {
+                    return;
+                }
+                long updated = (current & ~(0xFFL << shift)) | ((long) rank << shift);
+                if (words.compareAndSet(word, current, updated)) {
+                    return;
+                }
+            }
+        }
+
+        long estimate() {
+            int m = 1 << precision;
+            double sum = 0;
+            int zeros = 0;
+            for (int i = 0; i < words.length(); i++) {
+                long word = words.get(i);
+                for (int shift = 0; shift < 64; shift += 8) {
+                    int register = (int) (word >>> shift) & 0xFF;
+                    sum += 1.0 / (1L << register);
+                    if (register == 0) zeros++;
+                }
+            }
+
+            double alpha = 0.7213 / (1 + 1.079 / m);
+            double raw = alpha * m * m / sum;
+
+            // Linear counting is more accurate while many registers are empty
+            if (raw <= 2.5 * m && zeros > 0) {
+                return Math.round(m * Math.log((double) m / zeros));
+            }
+            return Math.round(raw);
+        }
+
+        // Union: register-wise max (same precision only)
+        void merge(HyperLogLog other) {
+            if (other.precision != precision) {
+                throw new IllegalArgumentException("Cannot merge sketches of different precision");
+            }
+            for (int i = 0; i < (1 << precision); i++) {
+                int word = i >>> 3;
+                int register = (int) (other.words.get(word) >>> ((i & 7) * 8)) & 0xFF;
+                if (register > 0) {
+                    setMax(i, register);
+                }
+            }
+        }
+
+        int sizeInBytes() {
+            return words.length() * Long.BYTES;
+        }
+
+        // 64-bit FNV-1a over the chars, finished with the murmur3 mixer
+        static long hash64(String value) {
+            long hash = 0xcbf29ce484222325L;
+            for (int i = 0; i < value.length(); i++) {
+                hash ^= value.charAt(i);
+                hash *= 0x100000001b3L;
+            }
+            hash ^= hash >>> 33;
+            hash *= 0xff51afd7ed558ccdL;
+            hash ^= hash >>> 33;
+            hash *= 0xc4ceb9fe1a85ec53L;
+            hash ^= hash >>> 33;
+            return hash;
+        }
+    }
+
+    // Windows answered from the ring buffers
+    enum Window {
+        LAST_MINUTE, LAST_5_MINUTES, LAST_HOUR
+    }
+
+    // Event counter with two fixed rings of time buckets: 60 x 1s (last
+    // minute) and 60 x 1min (last 5 minutes / hour). A bucket is tagged with
+    // the time slice it counts, so a stale bucket is recycled in place on the
+    // next write instead of being reallocated, and memory per key stays
+    // constant. The 5-minute and hour windows include the current partial
+    // minute, so they cover between N-1 and N full minutes.
+    static class SlidingWindowCounter {
+        private static final int BUCKETS = 60;
+        private static final long FINE_SLICE_MS = 1_000;
+        private static final long COARSE_SLICE_MS = 60_000;
+        private static final int COUNT_BITS = 40;
+        private static final long COUNT_MASK = (1L << COUNT_BITS) - 1;
+        private static final long TAG_MASK = (1L << (64 - COUNT_BITS)) - 1;
+
+        // Each slot packs [slice tag : 24 bits][count : 40 bits]
+        private final AtomicLongArray fine = new AtomicLongArray(BUCKETS);
+        private final AtomicLongArray coarse = new AtomicLongArray(BUCKETS);
+        private final LongAdder total = new LongAdder();
+
+        void increment(long nowMillis) {
+            add(fine, nowMillis / FINE_SLICE_MS);
+            add(coarse, nowMillis / COARSE_SLICE_MS);
+            total.increment();
+        }
+
+        private static void add(AtomicLongArray ring, long slice) {
+            int slot = (int) (slice % BUCKETS);
+            long tag = slice & TAG_MASK;
+            while (true) {
+                long current = ring.get(slot);
+                long currentTag = current >>> COUNT_BITS;
+                if (current != 0 && currentTag != tag
+                        && ((tag - currentTag) & TAG_MASK) > (TAG_MASK >>> 1)) {
+                    return;   // late event: its slice has already left the ring
+                }
+                long updated = currentTag == tag
+                        ? current + 1
+                        : (tag << COUNT_BITS) | 1;   // recycle stale bucket
+                if (ring.compareAndSet(slot, current, updated)) {
+                    return;
+                }
+            }
+        }
+
+        // Sum the most recent `slices` buckets that still belong to the window
+        private static long sum(AtomicLongArray ring, long currentSlice, int slices) {
+            long count = 0;
+            for (long slice = currentSlice - slices + 1; slice <= currentSlice; slice++) {
+                long value = ring.get((int) (slice % BUCKETS));
+                if ((value >>> COUNT_BITS) == (slice & TAG_MASK)) {
+                    count += value & COUNT_MASK;
+                }
+            }
+            return count;
+        }
+
+        long count(Window window, long nowMillis) {
+            switch (window) {
+                case LAST_MINUTE:
+                    return sum(fine, nowMillis / FINE_SLICE_MS, BUCKETS);
+                case LAST_5_MINUTES:
+                    return sum(coarse, nowMillis / COARSE_SLICE_MS, 5);
+                default:
+                    return sum(coarse, nowMillis / COARSE_SLICE_MS, BUCKETS);
+            }
+        }
+
+        long total() {
+            return total.sum();
+        }
+    }
+
+    // Space-Saving heavy hitters (Metwally et al.) on a Stream-Summary:
+    // counters live in buckets of equal count linked in count order, so an
+    // update is O(1) and the top N are read from the largest bucket down.
+    // With capacity m over N events, each reported count overestimates the
+    // true count by at most its error field (<= N/m), and every key that
+    // occurs more than N/m times is guaranteed to be tracked.
+    static class SpaceSaving {
+
+        static final class Counter {
+            String key;
+            long count;
+            long error;
+            Bucket bucket;
+            Counter prev, next;
+        }
+
+        static final class Bucket {
+            final long count;
+            Counter head;
+            Bucket smaller, larger;
+
+            Bucket(long count) {
+                this.count = count;
+            }
+        }
+
+        private final int capacity;
+        private final Map<String, Counter> counters;
+        private Bucket min, max;
+
+        SpaceSaving(int capacity) {
+            this.capacity = capacity;
+            this.counters = new HashMap<>(capacity * 2);
+        }
+
+        synchronized void offer(String key) {
+            offer(key, 1);
+        }
+
+        // Weighted update: same guarantees as weight single offers
+        synchronized void offer(String key, long weight) {
+            Counter counter = counters.get(key);
+
+            if (counter == null) {
+                if (counters.size() < capacity) {
+                    counter = new Counter();
+                    counter.key = key;
+                    counters.put(key, counter);
+                    place(counter, null, weight);
+                    return;
+                }
+
+                // Replace the minimum counter; its count becomes our error
+                counter = min.head;
+                counters.remove(counter.key);
+                counter.key = key;
+                counter.error = counter.count;
+                counters.put(key, counter);
+            }
+            increment(counter, weight);
+        }
+
+        // Top n keys with estimated counts, largest first
+        synchronized List<Counter> top(int n) {
+            List<Counter> result = new ArrayList<>(n);
+            for (Bucket b = max; b != null && result.size() < n; b = b.smaller) {
+                for (Counter c = b.head; c != null && result.size() < n; c = c.next) {
+                    Counter copy = new Counter();
+                    copy.key = c.key;
+                    copy.count = c.count;
+                    copy.error = c.error;
+                    result.add(copy);
+                }
+            }
+            return result;
+        }
+
+        private void increment(Counter counter, long weight) {
+            Bucket from = counter.bucket;
+            detach(counter);
+            place(counter, from, from.count + weight);
+
+            if (from.head == null) {
+                unlink(from);
+            }
+        }
+
+        // Attach counter to the bucket for target, searching upward from
+        // `after` (null = from the minimum) and creating the bucket if needed
+        private void place(Counter counter, Bucket after, long target) {
+            Bucket smaller = after;
+            Bucket to = after == null ? min : after.larger;
+            while (to != null && to.count < target) {
+                smaller = to;
+                to = to.larger;
+            }
+
+            if (to == null || to.count != target) {
+                Bucket bucket = new Bucket(target);
+                bucket.smaller = smaller;
+                bucket.larger = to;
+                if (smaller != null) {
+                    smaller.larger = bucket;
+                } else {
+                    min = bucket;
+                }
+                if (to != null) {
+                    to.smaller = bucket;
+                } else {
+                    max = bucket;
+                }
+                to = bucket;
+            }
+
+            counter.count = target;
+            attach(counter, to);
+        }
+
+        private static void attach(Counter counter, Bucket bucket) {
+            counter.bucket = bucket;
+            counter.prev = null;
+            counter.next = bucket.head;
+            if (bucket.head != null) {
+                bucket.head.prev = counter;
+            }
+            bucket.head = counter;
+        }
+
+        private static void detach(Counter counter) {
+            if (counter.prev != null) {
+                counter.prev.next = counter.next;
+            } else {
+                counter.bucket.head = counter.next;
+            }
+            if (counter.next != null) {
+                counter.next.prev = counter.prev;
+            }
+        }
+
+        private void unlink(Bucket bucket) {
+            if (bucket.smaller != null) {
+                bucket.smaller.larger = bucket.larger;
+            } else {
+                min = bucket.larger;
+            }
+            if (bucket.larger != null) {
+                bucket.larger.smaller = bucket.smaller;
+            } else {
+                max = bucket.smaller;
+            }
+        }
+    }
+
+    // One partition of the aggregates
+    static class Shard {
+        // pageUrl -> visit counts (all-time and sliding windows)
+        final ConcurrentHashMap<String, SlidingWindowCounter> pageVisits = new ConcurrentHashMap<>();
+
+        // pageUrl -> HyperLogLog sketch of unique users (fixed size per page)
+        final ConcurrentHashMap<String, HyperLogLog> uniqueVisitors = new ConcurrentHashMap<>();
+
+        // traffic source -> counts (all-time and sliding windows)
+        final ConcurrentHashMap<String, SlidingWindowCounter> sourceCounts = new ConcurrentHashMap<>();
+
+        // Partitioned by URL hash, so each URL is counted in exactly one
+        // summary; sharded mode has a single writer and needs only one
+        final SpaceSaving[] topPages;
+        final int hllPrecision;
+
+        // Sharded mode only
+        final BlockingQueue<PageViewEvent> queue;
+        final LongAdder accepted = new LongAdder();
+        final LongAdder dropped = new LongAdder();
+        final LongAdder processed = new LongAdder();
+        private volatile boolean running;
+        // Set once the worker has exited; events enqueued after that are
+        // applied by whoever sees it first (stop, or the late producer)
+        private volatile boolean stopped;
+        private Thread worker;
+        private LongSupplier clock;
+        // Signalled by the worker after each batch, for awaitProcessed
+        private final Object progress = new Object();
+
+        Shard(int hllPrecision, int queueCapacity) {
+            this.hllPrecision = hllPrecision;
+            this.queue = queueCapacity > 0 ? new ArrayBlockingQueue<>(queueCapacity) : null;
+
+            int stripes = queueCapacity > 0 ? 1 : HEAVY_HITTER_STRIPES;
+            this.topPages = new SpaceSaving[stripes];
+            for (int i = 0; i < stripes; i++) {
+                int capacity = HEAVY_HITTER_CAPACITY / stripes
+                        + (i < HEAVY_HITTER_CAPACITY % stripes ? 1 : 0);
+                topPages[i] = new SpaceSaving(Math.max(TOP_PAGES, capacity));
+            }
+        }
+
+        void apply(PageViewEvent event, long now) {
+            // Update page visit count
+            pageVisits.computeIfAbsent(event.url, k -> new SlidingWindowCounter()).increment(now);
+            offerView(event.url, 1);
+
+            // Update unique visitors
+            sketch(event.url).add(event.userId);
+
+            // Update traffic source count
+            sourceCounter(event.source).increment(now);
+        }
+
+        void offerView(String url, long views) {
+            int h = url.hashCode();
+            topPages[(h ^ (h >>> 16)) & (topPages.length - 1)].offer(url, views);
+        }
+
+        // Top n over the stripes; URLs are partitioned, so merging the
+        // stripes' top n lists is exact
+        List<SpaceSaving.Counter> top(int n) {
+            if (topPages.length == 1) {
+                return topPages[0].top(n);
+            }
+            List<List<SpaceSaving.Counter>> lists = new ArrayList<>(topPages.length);
+            for (SpaceSaving stripe : topPages) {
+                lists.add(stripe.top(n));
+            }
+            // Each list is sorted: take the largest head n times
+            int[] next = new int[lists.size()];
+            List<SpaceSaving.Counter> merged = new ArrayList<>(n);
+            while (merged.size() < n) {
+                int best = -1;
+                for (int i = 0; i < next.length; i++) {
+                    if (next[i] < lists.get(i).size() && (best < 0
+                            || lists.get(i).get(next[i]).count > lists.get(best).get(next[best]).count)) {
+                        best = i;
+                    }
+                }
+                if (best < 0) {
+                    break;
+                }
+                merged.add(lists.get(best).get(next[best]++));
+            }
+            return merged;
+        }
+
+        SlidingWindowCounter pageCounter(String url) {
+            return pageVisits.computeIfAbsent(url, k -> new SlidingWindowCounter());
+        }
+
+        HyperLogLog sketch(String url) {
+            return uniqueVisitors.computeIfAbsent(url, k -> new HyperLogLog(hllPrecision));
+        }
+
+        SlidingWindowCounter sourceCounter(String source) {
+            return sourceCounts.computeIfAbsent(source, k -> new SlidingWindowCounter());
+        }
+
+        void start(String name, LongSupplier clock) {
+            this.clock = clock;
+            running = true;
+            worker = new Thread(() -> drainLoop(clock), name);
+            worker.setDaemon(true);
+            worker.start();
+        }
+
+        // Single writer: drain the queue in batches, one clock read per batch
+        private void drainLoop(LongSupplier clock) {
+            List<PageViewEvent> batch = new ArrayList<>(INGEST_BATCH);
+            while (running || !queue.isEmpty()) {
+                try {
+                    PageViewEvent first = queue.poll(100, TimeUnit.MILLISECONDS);
+                    if (first == null) {
+                        continue;
+                    }
+                    batch.add(first);
+                    queue.drainTo(batch, INGEST_BATCH - 1);
+
+                    long now = clock.getAsLong();
+                    for (PageViewEvent event : batch) {
+                        apply(event, now);
+                    }
+                    processed.add(batch.size());
+                    batch.clear();
+                    synchronized (progress) {
+                        progress.notifyAll();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+
+        // Producers blocked on a full queue give up within one offer timeout
+        // once running is cleared; anything enqueued after the worker's last
+        // drain is applied here rather than stranded
+        void stop() throws InterruptedException {
+            running = false;
+            if (worker != null) {
+                worker.join();
+                stopped = true;
+                applyLeftovers();
+            }
+        }
+
+        // Only called once the worker has exited, so this is the single writer
+        synchronized void applyLeftovers() {
+            long now = clock.getAsLong();
+            int applied = 0;
+            for (PageViewEvent event; (event = queue.poll()) != null; applied++) {
+                apply(event, now);
+            }
+            if (applied > 0) {
+                processed.add(applied);
+                synchronized (progress) {
+                    progress.notifyAll();
+                }
+            }
+        }
+
+        void awaitProcessed() throws InterruptedException {
+            synchronized (progress) {
+                while (processed.sum() < accepted.sum()) {
+                    progress.wait();
+                }
+            }
+        }
+    }
+
+    private Shard shardFor(String url) {
+        return shards[(url.hashCode() & 0x7fffffff) % shards.length];
+    }
+
+    // Process incoming event: applied inline (direct mode), or queued to the
+    // URL's shard worker (sharded mode)
     public void processEvent(PageViewEvent event) {
+        Shard shard = shardFor(event.url);
+
+        if (!sharded) {
+            shard.apply(event, clock.getAsLong());
+            return;
+        }
+
+        if (dropWhenFull) {
+            if (shard.running && shard.queue.offer(event)) {
+                shard.accepted.increment();
+                if (shard.stopped) {
+                    shard.applyLeftovers();
+                }
+            } else {
+                shard.dropped.increment();
+            }
+            return;
+        }
+
+        // Block while the queue is full, but reject once the shard stops
+        try {
+            while (shard.running) {
+                if (shard.queue.offer(event, 100, TimeUnit.MILLISECONDS)) {
+                    shard.accepted.increment();
+                    if (shard.stopped) {
+                        shard.applyLeftovers();
+                    }
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        shard.dropped.increment();
+    }
+
+    // Binary page-view log: a 24-byte header, fixed 24-byte event records, then
+    // the URL and source dictionaries the records refer to by index.
+    //   header: magic, version, event count, dictionary offset
+    //   event:  timestamp millis (8), url id (4), source id (4), user hash (8)
+    //   dictionaries: url count, [length, UTF-8 bytes]..., source count, ...
+    // The user is stored as its HyperLogLog hash, so replay needs no strings
+    // per event and the log never holds raw user ids.
+    static final int LOG_MAGIC = 0x50564c47;   // "PVLG"
+    static final int LOG_VERSION = 1;
+    static final int LOG_HEADER_BYTES = 24;
+    static final int LOG_RECORD_BYTES = 24;
+
+    // Records mapped per chunk (a mapping is limited to 2 GB)
+    private static final int REPLAY_CHUNK_RECORDS = (1 << 30) / LOG_RECORD_BYTES;
+
+    // Events a replay thread applies between heavy-hitter flushes
+    private static final int REPLAY_BATCH = 4096;
+
+    static final class EventLogWriter implements Closeable {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20);
+        private final Map<String, Integer> urlIds = new HashMap<>();
+        private final List<String> urls = new ArrayList<>();
+        private final Map<String, Integer> sourceIds = new HashMap<>();
+        private final List<String> sources = new ArrayList<>();
+        private long events;
+
+        EventLogWriter(Path file) throws IOException {
+            channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+            channel.position(LOG_HEADER_BYTES);
+        }
+
+        void append(PageViewEvent event, long timestampMillis) throws IOException {
+            append(event.url, HyperLogLog.hash64(event.userId), event.source, timestampMillis);
+        }
+
+        void append(String url, long userHash, String source, long timestampMillis)
+                throws IOException {
+            if (buffer.remaining() < LOG_RECORD_BYTES) {
+                flush();
+            }
+            buffer.putLong(timestampMillis)
+                    .putInt(id(url, urlIds, urls))
+                    .putInt(id(source, sourceIds, sources))
+                    .putLong(userHash);
+            events++;
+        }
+
+        private static int id(String value, Map<String, Integer> ids, List<String> values) {
+            Integer id = ids.get(value);
+            if (id == null) {
+                id = values.size();
+                ids.put(value, id);
+                values.add(value);
+            }
+            return id;
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
 
-        // Update page visit count
-        pageVisits.merge(event.url, 1, Integer::sum);
+        private void writeDictionary(List<String> values) throws IOException {
+            buffer.putInt(values.size());
+            for (String value : values) {
+                byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+                if (buffer.remaining() < 4 + bytes.length) {
+                    flush();
+                }
+                buffer.putInt(bytes.length).put(bytes);
+            }
+            if (buffer.remaining() < 4) {
+                flush();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                flush();
+                long dictionaryOffset = channel.position();
+                writeDictionary(urls);
+                writeDictionary(sources);
+                flush();
+
+                ByteBuffer header = ByteBuffer.allocate(LOG_HEADER_BYTES);
+                header.putInt(LOG_MAGIC).putInt(LOG_VERSION)
+                        .putLong(events).putLong(dictionaryOffset).flip();
+                channel.write(header, 0);
+            } finally {
+                channel.close();
+            }
+        }
+    }
+
+    // Load generator: Zipf-like page popularity, uniform users and sources,
+    // timestamps spread evenly over [startMillis, startMillis + spanMillis)
+    static void generateEventLog(Path file, long events, int pages, int users,
+                                 long startMillis, long spanMillis, long seed) throws IOException {
+        String[] urls = new String[pages];
+        for (int i = 0; i < pages; i++) urls[i] = "/page/" + i;
+        String[] sources = {"google", "facebook", "direct", "twitter", "email"};
+        long[] userHashes = new long[users];
+        for (int i = 0; i < users; i++) userHashes[i] = HyperLogLog.hash64("user_" + i);
 
-        // Update unique visitors
-        uniqueVisitors
-                .computeIfAbsent(event.url, k -> ConcurrentHashMap.newKeySet())
-                .add(event.userId);
+        SplittableRandom random = new SplittableRandom(seed);
+        try (EventLogWriter writer = new EventLogWriter(file)) {
+            for (long i = 0; i < events; i++) {
+                int page = (int) Math.pow(pages, random.nextDouble());
+                writer.append(urls[Math.min(page, pages - 1)],
+                        userHashes[random.nextInt(users)],
+                        sources[random.nextInt(sources.length)],
+                        startMillis + spanMillis * i / events);
+            }
+        }
+    }
+
+    // Rebuild aggregates from an event log. Each replay thread owns a subset
+    // of the shards and scans the mapped records, applying only the events
+    // of its own shards, so every shard still has a single writer during the
+    // replay. Parallelism is therefore capped by the shard count; a direct
+    // (single-shard) dashboard replays on one thread. Events keep their
+    // logged timestamps, so sliding windows reflect when they happened.
+    public long replay(Path file, int threads) throws IOException, InterruptedException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, LOG_HEADER_BYTES);
+            if (header.getInt() != LOG_MAGIC || header.getInt() != LOG_VERSION) {
+                throw new IOException("Not a page-view log: " + file);
+            }
+            long events = header.getLong();
+            long dictionaryOffset = header.getLong();
+
+            MappedByteBuffer dictionaries = channel.map(FileChannel.MapMode.READ_ONLY,
+                    dictionaryOffset, channel.size() - dictionaryOffset);
+            String[] urls = readDictionary(dictionaries);
+            String[] sources = readDictionary(dictionaries);
+
+            int workers = Math.max(1, Math.min(threads, shards.length));
+            int[] urlShard = new int[urls.length];
+            for (int i = 0; i < urls.length; i++) {
+                urlShard[i] = (urls[i].hashCode() & 0x7fffffff) % shards.length;
+            }
+            ReplayCursor[] cursors = new ReplayCursor[workers];
+            for (int w = 0; w < workers; w++) {
+                cursors[w] = new ReplayCursor(w, workers, urls, sources, urlShard);
+            }
+
+            ExecutorService pool = Executors.newFixedThreadPool(workers);
+            try {
+                for (long first = 0; first < events; first += REPLAY_CHUNK_RECORDS) {
+                    int records = (int) Math.min(REPLAY_CHUNK_RECORDS, events - first);
+                    MappedByteBuffer chunk = channel.map(FileChannel.MapMode.READ_ONLY,
+                            LOG_HEADER_BYTES + first * LOG_RECORD_BYTES,
+                            (long) records * LOG_RECORD_BYTES);
+                    List<Future<?>> done = new ArrayList<>();
+                    for (ReplayCursor cursor : cursors) {
+                        done.add(pool.submit(() -> cursor.scan(chunk, records)));
+                    }
+                    for (Future<?> future : done) {
+                        future.get();
+                    }
+                }
+            } catch (ExecutionException e) {
+                throw new IOException("Replay failed: " + file, e.getCause());
+            } finally {
+                pool.shutdown();
+            }
+
+            publishSnapshot();
+            return events;
+        }
+    }
 
-        // Update traffic source count
-        sourceCounts.merge(event.source, 1, Integer::sum);
+    private static String[] readDictionary(ByteBuffer buffer) {
+        String[] values = new String[buffer.getInt()];
+        for (int i = 0; i < values.length; i++) {
+            byte[] bytes = new byte[buffer.getInt()];
+            buffer.get(bytes);
+            values[i] = new String(bytes, StandardCharsets.UTF_8);
+        }
+        return values;
     }
 
-    // Get top 10 pages
-    private List<Map.Entry<String, Integer>> getTopPages() {
-        PriorityQueue<Map.Entry<String, Integer>> minHeap =
-                new PriorityQueue<>(Map.Entry.comparingByValue());
+    // Per-thread replay state: aggregate handles are resolved once per URL
+    // and source id, so the hot loop does no map lookups and no allocation
+    private final class ReplayCursor {
+        private final int worker;
+        private final int workers;
+        private final String[] urls;
+        private final String[] sources;
+        private final int[] urlShard;
+        private final SlidingWindowCounter[] pageCounters;
+        private final HyperLogLog[] sketches;
+        private final SlidingWindowCounter[][] sourceCounters;
+
+        // Views per URL not yet offered to the heavy-hitter summaries; flushed
+        // as weighted offers to take a summary lock once per URL per batch
+        private final long[] pendingViews;
+        private final int[] touched;
+        private int touchedCount;
+        private int pendingEvents;
+
+        ReplayCursor(int worker, int workers, String[] urls, String[] sources, int[] urlShard) {
+            this.worker = worker;
+            this.workers = workers;
+            this.urls = urls;
+            this.sources = sources;
+            this.urlShard = urlShard;
+            this.pageCounters = new SlidingWindowCounter[urls.length];
+            this.sketches = new HyperLogLog[urls.length];
+            this.sourceCounters = new SlidingWindowCounter[shards.length][sources.length];
+            this.pendingViews = new long[urls.length];
+            this.touched = new int[Math.min(urls.length, REPLAY_BATCH)];
+        }
+
+        void scan(ByteBuffer records, int count) {
+            for (int i = 0, offset = 0; i < count; i++, offset += LOG_RECORD_BYTES) {
+                int url = records.getInt(offset + 8);
+                int shardIndex = urlShard[url];
+                if (shardIndex % workers != worker) {
+                    continue;
+                }
+                long timestamp = records.getLong(offset);
+                int source = records.getInt(offset + 12);
+                long userHash = records.getLong(offset + 16);
+                Shard shard = shards[shardIndex];
+
+                SlidingWindowCounter pageCounter = pageCounters[url];
+                if (pageCounter == null) {
+                    pageCounter = pageCounters[url] = shard.pageCounter(urls[url]);
+                    sketches[url] = shard.sketch(urls[url]);
+                }
+                pageCounter.increment(timestamp);
+                sketches[url].addHash(userHash);
+                if (pendingViews[url]++ == 0) {
+                    touched[touchedCount++] = url;
+                }
 
-        for (Map.Entry<String, Integer> entry : pageVisits.entrySet()) {
-            minHeap.offer(entry);
-            if (minHeap.size() > 10) {
-                minHeap.poll();
+                SlidingWindowCounter sourceCounter = sourceCounters[shardIndex][source];
+                if (sourceCounter == null) {
+                    sourceCounter = sourceCounters[shardIndex][source] =
+                            shard.sourceCounter(sources[source]);
+                }
+                sourceCounter.increment(timestamp);
+
+                if (++pendingEvents == REPLAY_BATCH) {
+                    flushTopPages();
+                }
             }
+            flushTopPages();
         }
 
-        List<Map.Entry<String, Integer>> result = new ArrayList<>(minHeap);
-        result.sort((a, b) -> b.getValue() - a.getValue());
-        return result;
+        private void flushTopPages() {
+            for (int i = 0; i < touchedCount; i++) {
+                int url = touched[i];
+                shards[urlShard[url]].offerView(urls[url], pendingViews[url]);
+                pendingViews[url] = 0;
+            }
+            touchedCount = 0;
+            pendingEvents = 0;
+        }
     }
 
-    // Dashboard display
-    public void getDashboard() {
-        System.out.println("\n===== REAL-TIME DASHBOARD =====");
+    // Events dropped because a shard queue was full (sharded mode)
+    public long getDroppedEvents() {
+        long total = 0;
+        for (Shard shard : shards) total += shard.dropped.sum();
+        return total;
+    }
 
-        System.out.println("Top Pages:");
-        int rank = 1;
-        for (Map.Entry<String, Integer> entry : getTopPages()) {
-            String url = entry.getKey();
-            int visits = entry.getValue();
-            int unique = uniqueVisitors.getOrDefault(url, Collections.emptySet()).size();
+    // Block until every accepted event has been applied (sharded mode)
+    public void awaitProcessed() throws InterruptedException {
+        for (Shard shard : shards) {
+            shard.awaitProcessed();
+        }
+    }
 
-            System.out.println(rank++ + ". " + url +
-                    " - " + visits + " views (" + unique + " unique)");
+    // Drain the shard queues, stop the workers and the dashboard updater,
+    // and complete all subscriptions
+    public void shutdown() throws InterruptedException {
+        // Interrupts a publish waiting on a full subscriber buffer, which
+        // then drops that subscriber instead of hanging
+        scheduler.shutdownNow();
+        scheduler.awaitTermination(5, TimeUnit.SECONDS);
+        for (Shard shard : shards) {
+            shard.stop();
         }
+        publisher.close();
+    }
+
+    // Views of a page within a sliding window
+    public long getPageViews(String url, Window window) {
+        SlidingWindowCounter counter = shardFor(url).pageVisits.get(url);
+        return counter == null ? 0 : counter.count(window, clock.getAsLong());
+    }
 
-        System.out.println("\nTraffic Sources:");
-        for (Map.Entry<String, Integer> entry : sourceCounts.entrySet()) {
-            System.out.println(entry.getKey() + " - " + entry.getValue());
+    // Events from a traffic source within a sliding window (summed over shards)
+    public long getSourceCount(String source, Window window) {
+        long now = clock.getAsLong();
+        long total = 0;
+        for (Shard shard : shards) {
+            SlidingWindowCounter counter = shard.sourceCounts.get(source);
+            if (counter != null) total += counter.count(window, now);
         }
+        return total;
+    }
+
+    // Estimated unique visitors of one page
+    public long getUniqueVisitors(String url) {
+        HyperLogLog sketch = shardFor(url).uniqueVisitors.get(url);
+        return sketch == null ? 0 : sketch.estimate();
+    }
 
-        System.out.println("================================\n");
+    // Estimated unique visitors across several pages (users counted once)
+    public long getUniqueVisitors(Collection<String> urls) {
+        HyperLogLog union = new HyperLogLog(hllPrecision);
+        for (String url : urls) {
+            HyperLogLog sketch = shardFor(url).uniqueVisitors.get(url);
+            if (sketch != null) {
+                union.merge(sketch);
+            }
+        }
+        return union.estimate();
+    }
+
+    // Get top 10 pages: URLs are partitioned, so the global top 10 is the
+    // top 10 of the shards' top 10s (O(shards x 10))
+    private List<SpaceSaving.Counter> getTopPages() {
+        if (shards.length == 1) {
+            return shards[0].top(TOP_PAGES);
+        }
+        List<SpaceSaving.Counter> merged = new ArrayList<>();
+        for (Shard shard : shards) {
+            merged.addAll(shard.top(TOP_PAGES));
+        }
+        merged.sort((a, b) -> Long.compare(b.count, a.count));
+        return merged.subList(0, Math.min(TOP_PAGES, merged.size()));
+    }
+
+    // traffic source -> counter per shard
+    private Map<String, List<SlidingWindowCounter>> sourceCounters() {
+        Map<String, List<SlidingWindowCounter>> sources = new TreeMap<>();
+        for (Shard shard : shards) {
+            shard.sourceCounts.forEach((source, counter) ->
+                    sources.computeIfAbsent(source, k -> new ArrayList<>()).add(counter));
+        }
+        return sources;
+    }
+
+    // Counts of one page or source: all-time and per sliding window
+    static final class WindowedCount {
+        final long total;
+        final long lastMinute;
+        final long last5Minutes;
+        final long lastHour;
+
+        WindowedCount(long total, long lastMinute, long last5Minutes, long lastHour) {
+            this.total = total;
+            this.lastMinute = lastMinute;
+            this.last5Minutes = last5Minutes;
+            this.lastHour = lastHour;
+        }
+
+        static WindowedCount of(List<SlidingWindowCounter> counters, long now) {
+            long total = 0, minute = 0, fiveMinutes = 0, hour = 0;
+            for (SlidingWindowCounter counter : counters) {
+                if (counter == null) continue;
+                total += counter.total();
+                minute += counter.count(Window.LAST_MINUTE, now);
+                fiveMinutes += counter.count(Window.LAST_5_MINUTES, now);
+                hour += counter.count(Window.LAST_HOUR, now);
+            }
+            return new WindowedCount(total, minute, fiveMinutes, hour);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof WindowedCount)) return false;
+            WindowedCount other = (WindowedCount) o;
+            return total == other.total && lastMinute == other.lastMinute &&
+                    last5Minutes == other.last5Minutes && lastHour == other.lastHour;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(total, lastMinute, last5Minutes, lastHour);
+        }
+
+        @Override
+        public String toString() {
+            return total + " [1m: " + lastMinute + ", 5m: " + last5Minutes +
+                    ", 1h: " + lastHour + "]";
+        }
+    }
+
+    // One row of the top-pages table
+    static final class PageStat {
+        final String url;
+        final WindowedCount views;
+        final long uniqueVisitors;
+
+        PageStat(String url, WindowedCount views, long uniqueVisitors) {
+            this.url = url;
+            this.views = views;
+            this.uniqueVisitors = uniqueVisitors;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof PageStat)) return false;
+            PageStat other = (PageStat) o;
+            return url.equals(other.url) && views.equals(other.views) &&
+                    uniqueVisitors == other.uniqueVisitors;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(url, views, uniqueVisitors);
+        }
+    }
+
+    // Immutable, versioned view of the dashboard
+    static final class DashboardSnapshot {
+        static final DashboardSnapshot EMPTY =
+                new DashboardSnapshot(0, 0, Collections.emptyList(), Collections.emptyMap());
+
+        final long version;
+        final long timestamp;
+        final List<PageStat> topPages;
+        final Map<String, WindowedCount> sources;
+
+        DashboardSnapshot(long version, long timestamp, List<PageStat> topPages,
+                          Map<String, WindowedCount> sources) {
+            this.version = version;
+            this.timestamp = timestamp;
+            this.topPages = Collections.unmodifiableList(new ArrayList<>(topPages));
+            this.sources = Collections.unmodifiableMap(new TreeMap<>(sources));
+        }
+
+        // Changes needed to turn this snapshot into next
+        DashboardDelta diff(DashboardSnapshot next) {
+            Map<String, WindowedCount> changedSources = new TreeMap<>();
+            next.sources.forEach((source, count) -> {
+                if (!count.equals(sources.get(source))) changedSources.put(source, count);
+            });
+            boolean topChanged = !topPages.equals(next.topPages);
+            return new DashboardDelta(version, next.version, next.timestamp,
+                    topChanged ? next.topPages : null, changedSources);
+        }
+
+        // Subscriber side: rebuild the next snapshot from a delta
+        DashboardSnapshot apply(DashboardDelta delta) {
+            if (delta.fromVersion != version) {
+                throw new IllegalStateException("Delta from version " + delta.fromVersion +
+                        " applied to snapshot version " + version);
+            }
+            Map<String, WindowedCount> merged = new TreeMap<>(sources);
+            merged.putAll(delta.changedSources);
+            return new DashboardSnapshot(delta.toVersion, delta.timestamp,
+                    delta.topPages != null ? delta.topPages : topPages, merged);
+        }
+
+        String render() {
+            StringBuilder out = new StringBuilder();
+            out.append("\n===== REAL-TIME DASHBOARD (v").append(version).append(") =====\n");
+            out.append("Top Pages:\n");
+            int rank = 1;
+            for (PageStat page : topPages) {
+                out.append(rank++).append(". ").append(page.url)
+                        .append(" - ").append(page.views.total).append(" views (")
+                        .append(page.uniqueVisitors).append(" unique) [1m: ")
+                        .append(page.views.lastMinute).append(", 5m: ")
+                        .append(page.views.last5Minutes).append(", 1h: ")
+                        .append(page.views.lastHour).append("]\n");
+            }
+            out.append("\nTraffic Sources:\n");
+            sources.forEach((source, count) ->
+                    out.append(source).append(" - ").append(count).append('\n'));
+            out.append("================================\n");
+            return out.toString();
+        }
+    }
+
+    // Difference between two consecutive snapshots; topPages is null when the
+    // table did not change, changedSources holds only sources whose counts moved
+    static final class DashboardDelta {
+        final long fromVersion;
+        final long toVersion;
+        final long timestamp;
+        final List<PageStat> topPages;
+        final Map<String, WindowedCount> changedSources;
+
+        DashboardDelta(long fromVersion, long toVersion, long timestamp,
+                       List<PageStat> topPages, Map<String, WindowedCount> changedSources) {
+            this.fromVersion = fromVersion;
+            this.toVersion = toVersion;
+            this.timestamp = timestamp;
+            this.topPages = topPages;
+            this.changedSources = Collections.unmodifiableMap(changedSources);
+        }
+
+        boolean isEmpty() {
+            return topPages == null && changedSources.isEmpty();
+        }
     }
 
-    // Auto refresh every 5 seconds
+    // Latest published snapshot (never blocks, never touches the live maps)
+    public DashboardSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    // Dashboard display, rendered from the latest snapshot
+    public String getDashboard() {
+        return snapshot.render();
+    }
+
+    // Scan the aggregates once and publish the delta to every subscriber;
+    // nothing is published when nothing changed
+    void publishSnapshot() {
+        synchronized (offerLock) {
+            DashboardDelta delta;
+            // Serialized so versions follow scan order
+            synchronized (publishLock) {
+                long now = clock.getAsLong();
+                List<PageStat> topPages = new ArrayList<>();
+                for (SpaceSaving.Counter entry : getTopPages()) {
+                    String url = entry.key;
+                    SlidingWindowCounter counter = shardFor(url).pageVisits.get(url);
+                    topPages.add(new PageStat(url,
+                            WindowedCount.of(Collections.singletonList(counter), now),
+                            getUniqueVisitors(url)));
+                }
+                Map<String, WindowedCount> sources = new TreeMap<>();
+                sourceCounters().forEach((source, counters) ->
+                        sources.put(source, WindowedCount.of(counters, now)));
+
+                DashboardSnapshot previous = snapshot;
+                DashboardSnapshot next =
+                        new DashboardSnapshot(previous.version + 1, now, topPages, sources);
+                delta = previous.diff(next);
+                if (delta.isEmpty()) {
+                    return;
+                }
+                snapshot = next;
+            }
+            // Waits at most SUBSCRIBER_TIMEOUT_MS for a full buffer, then cuts
+            // that subscriber off: a skipped delta would corrupt its replica
+            publisher.offer(delta, SUBSCRIBER_TIMEOUT_MS, TimeUnit.MILLISECONDS,
+                    (subscriber, dropped) -> {
+                        ((SeededSubscriber) subscriber).fellBehind(dropped);
+                        return false;
+                    });
+        }
+    }
+
+    // Subscribe to dashboard deltas. The first item is the delta from the
+    // empty snapshot to the current one, so applying every item in order to
+    // DashboardSnapshot.EMPTY reproduces the published snapshots. A
+    // subscriber that falls SUBSCRIBER_TIMEOUT_MS behind is cancelled and
+    // receives onError; subscribing again resyncs it from the current snapshot.
+    public void subscribe(Flow.Subscriber<? super DashboardDelta> subscriber) {
+        synchronized (publishLock) {
+            DashboardDelta initial = DashboardSnapshot.EMPTY.diff(snapshot);
+            publisher.subscribe(new SeededSubscriber(subscriber, initial));
+        }
+    }
+
+    // Delivers the catch-up delta on the first request, then passes the
+    // publisher's items through, skipping any the catch-up already covers
+    private static final class SeededSubscriber implements Flow.Subscriber<DashboardDelta> {
+        private final Flow.Subscriber<? super DashboardDelta> downstream;
+        private final long seededVersion;
+        private DashboardDelta initial;
+        private volatile Flow.Subscription upstream;
+        private boolean terminated;
+
+        SeededSubscriber(Flow.Subscriber<? super DashboardDelta> downstream,
+                         DashboardDelta initial) {
+            this.downstream = downstream;
+            this.initial = initial;
+            this.seededVersion = initial.toVersion;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription upstream) {
+            this.upstream = upstream;
+            downstream.onSubscribe(new Flow.Subscription() {
+                @Override
+                public void request(long n) {
+                    synchronized (SeededSubscriber.this) {
+                        if (n > 0 && initial != null && !terminated) {
+                            DashboardDelta first = initial;
+                            initial = null;
+                            downstream.onNext(first);
+                            n--;
+                        }
+                    }
+                    if (n > 0) upstream.request(n);
+                }
+
+                @Override
+                public void cancel() {
+                    upstream.cancel();
+                }
+            });
+        }
+
+        // Called on the publishing thread when this subscriber's buffer stayed
+        // full for SUBSCRIBER_TIMEOUT_MS. The error is signalled from another
+        // thread because the subscriber may still be busy inside onNext.
+        void fellBehind(DashboardDelta dropped) {
+            Flow.Subscription subscription = upstream;
+            if (subscription != null) subscription.cancel();
+            IllegalStateException error = new IllegalStateException(
+                    "Subscriber fell behind at delta v" + dropped.fromVersion + " -> v" +
+                            dropped.toVersion + "; resubscribe to resync");
+            CompletableFuture.runAsync(() -> onError(error));
+        }
+
+        @Override
+        public synchronized void onNext(DashboardDelta item) {
+            // Published while subscribe() seeded this subscriber past it
+            if (terminated || item.toVersion <= seededVersion) return;
+            downstream.onNext(item);
+        }
+
+        @Override
+        public synchronized void onError(Throwable throwable) {
+            if (terminated) return;
+            terminated = true;
+            downstream.onError(throwable);
+        }
+
+        @Override
+        public synchronized void onComplete() {
+            if (terminated) return;
+            terminated = true;
+            downstream.onComplete();
+        }
+    }
+
+    // Republish the snapshot every publishIntervalMillis; a failure is logged
+    // rather than thrown, which would cancel every later run
     private void startDashboardUpdater() {
-        ScheduledExecutorService scheduler =
-                Executors.newSingleThreadScheduledExecutor();
+        scheduler.scheduleAtFixedRate(() -> {
+            try {
+                publishSnapshot();
+            } catch (RuntimeException e) {
+                System.err.println("Dashboard: snapshot publish failed: " + e);
+            }
+        }, publishIntervalMillis, publishIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    // Producer threads pushing events: direct CHM updates vs. sharded workers
+    static void benchmarkIngestion() throws InterruptedException {
+        int producers = 4;
+        int eventsPerProducer = 250_000;
+        PageViewEvent[] events = new PageViewEvent[eventsPerProducer];
+        Random random = new Random(3);
+        String[] sources = {"google", "facebook", "direct", "twitter", "email"};
+        for (int i = 0; i < events.length; i++) {
+            // A few hot URLs take most of the traffic
+            String url = "/page/" + (int) Math.pow(10_000, random.nextDouble() * random.nextDouble());
+            events[i] = new PageViewEvent(url, "user_" + random.nextInt(100_000),
+                    sources[random.nextInt(sources.length)]);
+        }
+
+        RealTimeAnalyticsDashboard direct = new RealTimeAnalyticsDashboard();
+        long directMs = runProducers(direct, events, producers);
+        direct.shutdown();
+
+        int shardCount = Math.max(2, Runtime.getRuntime().availableProcessors());
+        RealTimeAnalyticsDashboard sharded = new RealTimeAnalyticsDashboard(shardCount, 8192, false);
+        long shardedMs = runProducers(sharded, events, producers);
+        sharded.shutdown();
+
+        long applied = 0;
+        for (Shard shard : sharded.shards) {
+            for (SlidingWindowCounter counter : shard.pageVisits.values()) applied += counter.total();
+        }
+
+        long total = (long) producers * eventsPerProducer;
+        System.out.printf("Ingestion (%d producers, %d events): direct %,d ev/s, %d shards %,d ev/s, applied %d, dropped %d%n",
+                producers, total, total * 1000 / Math.max(1, directMs), shardCount,
+                total * 1000 / Math.max(1, shardedMs), applied, sharded.getDroppedEvents());
+
+        shutdownWithBlockedProducers(events);
+    }
+
+    // Shut down while producers are blocked on a tiny queue: they must be
+    // released, and every accepted event must still be applied
+    static void shutdownWithBlockedProducers(PageViewEvent[] events) throws InterruptedException {
+        RealTimeAnalyticsDashboard dashboard = new RealTimeAnalyticsDashboard(1, 16, false);
+        Thread[] threads = new Thread[4];
+        for (int p = 0; p < threads.length; p++) {
+            threads[p] = new Thread(() -> {
+                for (PageViewEvent event : events) dashboard.processEvent(event);
+            });
+            threads[p].start();
+        }
+        Thread.sleep(50);
+        dashboard.shutdown();
+        for (Thread thread : threads) {
+            thread.join(10_000);
+            if (thread.isAlive()) {
+                throw new IllegalStateException("producer still blocked after shutdown");
+            }
+        }
+        dashboard.awaitProcessed();
+        Shard shard = dashboard.shards[0];
+        if (shard.processed.sum() != shard.accepted.sum()
+                || shard.accepted.sum() + shard.dropped.sum() != (long) threads.length * events.length) {
+            throw new IllegalStateException("events lost on shutdown");
+        }
+        System.out.printf("Shutdown with blocked producers: applied %d, rejected %d%n",
+                shard.processed.sum(), shard.dropped.sum());
+    }
+
+    private static long runProducers(RealTimeAnalyticsDashboard dashboard,
+                                     PageViewEvent[] events, int producers)
+            throws InterruptedException {
+        Thread[] threads = new Thread[producers];
+        long start = System.nanoTime();
+        for (int p = 0; p < producers; p++) {
+            threads[p] = new Thread(() -> {
+                for (PageViewEvent event : events) dashboard.processEvent(event);
+            });
+            threads[p].start();
+        }
+        for (Thread thread : threads) thread.join();
+        dashboard.awaitProcessed();
+        return (System.nanoTime() - start) / 1_000_000;
+    }
+
+    // Backfill: generate a log covering the last 30 minutes and replay it
+    static void replayBenchmark() throws IOException, InterruptedException {
+        long events = 5_000_000;
+        Path log = Files.createTempFile("pageviews", ".log");
+        try {
+            long now = System.currentTimeMillis();
+            long start = System.nanoTime();
+            generateEventLog(log, events, 50_000, 1_000_000, now - 30 * 60_000L, 30 * 60_000L, 11);
+            long generateMs = (System.nanoTime() - start) / 1_000_000;
+            System.out.printf("Generated %,d events in %d ms (%d MB)%n",
+                    events, generateMs, Files.size(log) >> 20);
 
-        scheduler.scheduleAtFixedRate(this::getDashboard,
-                5, 5, TimeUnit.SECONDS);
+            int[][] configs = {{0, 1}, {4, 4}};   // {shards (0 = direct), replay threads}
+            List<String> firstTop = null;
+            for (int[] config : configs) {
+                RealTimeAnalyticsDashboard dashboard = config[0] == 0
+                        ? new RealTimeAnalyticsDashboard()
+                        : new RealTimeAnalyticsDashboard(config[0], 1024, false);
+                start = System.nanoTime();
+                dashboard.replay(log, config[1]);
+                long replayMs = Math.max(1, (System.nanoTime() - start) / 1_000_000);
+
+                long pageViews = 0, lastHour = 0;
+                for (Shard shard : dashboard.shards) {
+                    for (SlidingWindowCounter counter : shard.pageVisits.values()) {
+                        pageViews += counter.total();
+                        lastHour += counter.count(Window.LAST_HOUR, System.currentTimeMillis());
+                    }
+                }
+                List<String> top = new ArrayList<>();
+                for (PageStat page : dashboard.getSnapshot().topPages) top.add(page.url);
+                if (firstTop == null) firstTop = top;
+                System.out.printf("Replay (%s, %d threads): %,d ev/s, page views %d, last hour %d, same top pages: %b%n",
+                        config[0] == 0 ? "direct" : config[0] + " shards", config[1],
+                        events * 1000 / replayMs, pageViews, lastHour, top.equals(firstTop));
+                dashboard.shutdown();
+            }
+        } finally {
+            Files.deleteIfExists(log);
+        }
+    }
+
+    // Two dashboards rebuild the snapshot from deltas while traffic arrives
+    static void subscriberDemo(RealTimeAnalyticsDashboard dashboard) throws InterruptedException {
+        List<DeltaReplica> replicas = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            DeltaReplica replica = new DeltaReplica();
+            dashboard.subscribe(replica);
+            replicas.add(replica);
+        }
+
+        Random random = new Random(7);
+        String[] sources = {"google", "facebook", "direct"};
+        for (int tick = 0; tick < 10; tick++) {
+            for (int i = 0; i < 1000; i++) {
+                dashboard.processEvent(new PageViewEvent("/page/" + random.nextInt(20),
+                        "user_" + random.nextInt(500), sources[random.nextInt(sources.length)]));
+            }
+            Thread.sleep(100);
+        }
+        dashboard.publishSnapshot();
+        DashboardSnapshot published = dashboard.getSnapshot();
+        Thread.sleep(200);
+
+        for (DeltaReplica replica : replicas) {
+            DashboardSnapshot view = replica.view;
+            System.out.printf("Subscriber: %d deltas, at v%d, matches published v%d: %b%n",
+                    replica.deltas, view.version, published.version,
+                    view.version == published.version && view.topPages.equals(published.topPages)
+                            && view.sources.equals(published.sources));
+        }
+        System.out.print(dashboard.getDashboard());
+    }
+
+    // A subscriber that stops requesting is cut off after its buffer fills,
+    // without stalling publishing or the other subscribers
+    static void stalledSubscriberCheck() throws InterruptedException {
+        RealTimeAnalyticsDashboard dashboard =
+                new RealTimeAnalyticsDashboard(DEFAULT_UNIQUE_ERROR, 60_000);
+        try {
+            DeltaReplica healthy = new DeltaReplica();
+            CountDownLatch failed = new CountDownLatch(1);
+            dashboard.subscribe(healthy);
+            dashboard.subscribe(new Flow.Subscriber<DashboardDelta>() {
+                @Override
+                public void onSubscribe(Flow.Subscription subscription) {
+                    subscription.request(1);
+                }
+
+                @Override
+                public void onNext(DashboardDelta delta) {
+                }
+
+                @Override
+                public void onError(Throwable throwable) {
+                    failed.countDown();
+                }
+
+                @Override
+                public void onComplete() {
+                }
+            });
+
+            int publishes = Flow.defaultBufferSize() * 2;
+            long start = System.nanoTime();
+            for (int i = 0; i < publishes; i++) {
+                dashboard.processEvent(new PageViewEvent("/stalled", "user_" + i, "direct"));
+                dashboard.publishSnapshot();
+            }
+            long millis = (System.nanoTime() - start) / 1_000_000;
+            if (!failed.await(5, TimeUnit.SECONDS)) {
+                throw new IllegalStateException("stalled subscriber was never cut off");
+            }
+            DashboardSnapshot published = dashboard.getSnapshot();
+            long deadline = System.currentTimeMillis() + 5000;
+            while (healthy.view.version != published.version
+                    && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            if (!healthy.view.sources.equals(published.sources)) {
+                throw new IllegalStateException("healthy subscriber diverged");
+            }
+            System.out.printf("Stalled subscriber: %d publishes in %d ms, stalled one dropped, " +
+                    "other at v%d%n", publishes, millis, healthy.view.version);
+        } finally {
+            dashboard.shutdown();
+        }
+    }
+
+    // Subscriber that keeps its own copy of the dashboard
+    static final class DeltaReplica implements Flow.Subscriber<DashboardDelta> {
+        volatile DashboardSnapshot view = DashboardSnapshot.EMPTY;
+        volatile int deltas;
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            subscription.request(Long.MAX_VALUE);
+        }
+
+        @Override
+        public void onNext(DashboardDelta delta) {
+            view = view.apply(delta);
+            deltas++;
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            System.err.println("DeltaReplica: stream failed: " + throwable);
+        }
+
+        @Override
+        public void onComplete() {
+        }
     }
 
     // Main method for testing
-    public static void main(String[] args) throws InterruptedException {
+    public static void main(String[] args) throws IOException, InterruptedException {
 
         RealTimeAnalyticsDashboard dashboard =
-                new RealTimeAnalyticsDashboard();
+                new RealTimeAnalyticsDashboard(DEFAULT_UNIQUE_ERROR, 200);
 
         // Simulate streaming events
         dashboard.processEvent(new PageViewEvent(
@@ -118,7 +1597,63 @@ public class RealTimeAnalyticsDashboard {
         dashboard.processEvent(new PageViewEvent(
                 "/sports/championship", "user_999", "google"));
 
-        // Keep program running
-        Thread.sleep(20000);
+        System.out.println("Unique visitors across both pages: "
+                + dashboard.getUniqueVisitors(Arrays.asList(
+                        "/article/breaking-news", "/sports/championship")));
+
+        // Accuracy on a viral page: 1M distinct users in a fixed-size sketch
+        RealTimeAnalyticsDashboard viral = new RealTimeAnalyticsDashboard();
+        int users = 1_000_000;
+        for (int i = 0; i < users; i++) {
+            viral.processEvent(new PageViewEvent("/viral", "user_" + i, "twitter"));
+        }
+        long estimate = viral.getUniqueVisitors("/viral");
+        System.out.printf("Viral page: %d actual, %d estimated (%.2f%% error), sketch %d bytes%n",
+                users, estimate, Math.abs(estimate - users) * 100.0 / users,
+                viral.shardFor("/viral").uniqueVisitors.get("/viral").sizeInBytes());
+        viral.shutdown();
+
+        // Sliding windows on a simulated clock: one view per second for 2 hours
+        long[] fakeNow = {0};
+        RealTimeAnalyticsDashboard windowed =
+                new RealTimeAnalyticsDashboard(DEFAULT_UNIQUE_ERROR, () -> fakeNow[0]);
+        for (int second = 0; second < 7200; second++) {
+            fakeNow[0] = second * 1000L;
+            windowed.processEvent(new PageViewEvent("/live", "user_" + second, "direct"));
+        }
+        System.out.println("Windows after 2h of 1 view/s: 1m=" +
+                windowed.getPageViews("/live", Window.LAST_MINUTE) + ", 5m=" +
+                windowed.getPageViews("/live", Window.LAST_5_MINUTES) + ", 1h=" +
+                windowed.getPageViews("/live", Window.LAST_HOUR));
+        windowed.shutdown();
+
+        // Heavy hitters: Zipf-like traffic over 200k distinct URLs
+        RealTimeAnalyticsDashboard zipf = new RealTimeAnalyticsDashboard();
+        Random random = new Random(1);
+        Map<String, Integer> exact = new HashMap<>();
+        for (int i = 0; i < 2_000_000; i++) {
+            String url = "/page/" + (int) Math.pow(200_000, random.nextDouble());
+            exact.merge(url, 1, Integer::sum);
+            zipf.shards[0].offerView(url, 1);
+        }
+        List<String> exactTop = new ArrayList<>(exact.keySet());
+        exactTop.sort((a, b) -> exact.get(b) - exact.get(a));
+        long start = System.nanoTime();
+        List<SpaceSaving.Counter> estimated = zipf.getTopPages();
+        long topNanos = System.nanoTime() - start;
+        int matches = 0;
+        for (SpaceSaving.Counter c : estimated) {
+            if (exactTop.subList(0, TOP_PAGES).contains(c.key)) matches++;
+        }
+        System.out.printf("Top-%d from %d counters over %d URLs: %d/%d match exact, read in %d us%n",
+                TOP_PAGES, HEAVY_HITTER_CAPACITY, exact.size(), matches, TOP_PAGES, topNanos / 1000);
+        zipf.shutdown();
+
+        benchmarkIngestion();
+        replayBenchmark();
+
+        subscriberDemo(dashboard);
+        stalledSubscriberCheck();
+        dashboard.shutdown();
     }
 }
\ No newline at end of file
@@ -1,70 +1,1282 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.lang.management.ManagementFactory;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.function.LongConsumer;
+import java.util.regex.Pattern;
 
     public class UsernameAvailabilityChecker {
 
         // Stores registered usernames (username -> userId)
         private ConcurrentHashMap<String, Integer> usernameMap;
 
-        // Stores attempt frequency (username -> attempt count)
-        private ConcurrentHashMap<String, Integer> attemptCount;
+        // Persistent store used instead of usernameMap when the checker is opened
+        // on an index file; null in the in-memory mode
+        private final MappedUsernameIndex index;
+
+        // Attempt frequency: bounded, striped Space-Saving counters plus an
+        // incrementally maintained top-K of the most attempted names
+        private static final int DEFAULT_ATTEMPT_CAPACITY = 100_000;
+        private static final int ATTEMPT_STRIPES = 16;
+        private static final int TOP_ATTEMPTED = 10;
+        private final AttemptStripe[] attemptStripes;
+        private final Leaderboard mostAttempted = new Leaderboard(TOP_ATTEMPTED);
+
+        // Front tier: every registered name is added here before the map, so a
+        // negative answer means "definitely available" without a map lookup
+        private static final long DEFAULT_EXPECTED_USERS = 1_000_000;
+        private static final double DEFAULT_FALSE_POSITIVE_RATE = 0.01;
+        private final BloomFilter registered;
+
+        // False while the filter is still being filled from a freshly opened
+        // index; until then every check goes to the store
+        private volatile boolean filterReady;
+
+        // How often the filter answered alone vs. fell through to the map
+        private final LongAdder filterRejects = new LongAdder();
+        private final LongAdder filterPasses = new LongAdder();
 
         public UsernameAvailabilityChecker() {
-            usernameMap = new ConcurrentHashMap<>();
-            attemptCount = new ConcurrentHashMap<>();
+            this(DEFAULT_EXPECTED_USERS, DEFAULT_FALSE_POSITIVE_RATE);
+        }
+
+        // expectedUsers: names the filter is sized for; falsePositiveRate: target
+        // share of available names that still need a map lookup at that size
+        public UsernameAvailabilityChecker(long expectedUsers, double falsePositiveRate) {
+            this(expectedUsers, falsePositiveRate, DEFAULT_ATTEMPT_CAPACITY);
+        }
+
+        // attemptCapacity: most distinct names whose attempts are tracked; beyond
+        // that, the least attempted name is evicted (Space-Saving)
+        public UsernameAvailabilityChecker(long expectedUsers, double falsePositiveRate,
+                                           int attemptCapacity) {
+            this(null, expectedUsers, falsePositiveRate, attemptCapacity);
+        }
+
+        // Open (or create) a persistent username index. Startup only maps the
+        // file; the Bloom filter is filled from the index on a background thread.
+        public UsernameAvailabilityChecker(Path indexFile, long expectedUsers,
+                                           double falsePositiveRate) throws IOException {
+            this(MappedUsernameIndex.open(indexFile, expectedUsers),
+                    expectedUsers, falsePositiveRate, DEFAULT_ATTEMPT_CAPACITY);
+        }
+
+        private UsernameAvailabilityChecker(MappedUsernameIndex index, long expectedUsers,
+                                            double falsePositiveRate, int attemptCapacity) {
+            this.index = index;
+            usernameMap = index == null ? new ConcurrentHashMap<>() : null;
+            registered = new BloomFilter(expectedUsers, falsePositiveRate);
+            if (index == null) {
+                filterReady = true;
+            } else {
+                Thread warmer = new Thread(() -> {
+                    index.forEachHash(registered::addHash);
+                    filterReady = true;
+                }, "username-filter-warmup");
+                warmer.setDaemon(true);
+                warmer.start();
+            }
+
+            attemptStripes = new AttemptStripe[ATTEMPT_STRIPES];
+            int perStripe = Math.max(1, (attemptCapacity + ATTEMPT_STRIPES - 1) / ATTEMPT_STRIPES);
+            for (int i = 0; i < ATTEMPT_STRIPES; i++) {
+                attemptStripes[i] = new AttemptStripe(perStripe);
+            }
+        }
+
+        // One stripe of the attempt counters: Space-Saving over an indexed
+        // min-heap. A name always hashes to the same stripe, so stripes count
+        // disjoint names and only contend when two names share a stripe. When
+        // full, a new name replaces the minimum and inherits its count as error,
+        // so counts may overestimate by at most (attempts in stripe / capacity).
+        static final class AttemptStripe {
+            private static final class Entry {
+                String name;
+                long count;
+                int position;   // index in the heap
+            }
+
+            private final Map<String, Entry> entries;
+            private final Entry[] heap;
+            private int size;
+
+            AttemptStripe(int capacity) {
+                entries = new HashMap<>(capacity * 2);
+                heap = new Entry[capacity];
+            }
+
+            // Count one attempt and return the name's new (estimated) count
+            synchronized long record(String name) {
+                Entry entry = entries.get(name);
+                if (entry == null) {
+                    if (size < heap.length) {
+                        entry = new Entry();
+                        entry.name = name;
+                        entry.position = size;
+                        heap[size++] = entry;
+                        entries.put(name, entry);
+                        entry.count = 1;
+                        siftUp(entry.position);
+                        return 1;
+                    }
+                    // Evict the least attempted name
+                    entry = heap[0];
+                    entries.remove(entry.name);
+                    entry.name = name;
+                    entries.put(name, entry);
+                }
+                entry.count++;
+                siftDown(entry.position);
+                return entry.count;
+            }
+
+            synchronized long count(String name) {
+                Entry entry = entries.get(name);
+                return entry == null ? 0 : entry.count;
+            }
+
+            synchronized long total() {
+                long total = 0;
+                for (int i = 0; i < size; i++) total += heap[i].count;
+                return total;
+            }
+
+            private void siftUp(int i) {
+                while (i > 0) {
+                    int parent = (i - 1) / 2;
+                    if (heap[parent].count <= heap[i].count) return;
+                    swap(i, parent);
+                    i = parent;
+                }
+            }
+
+            private void siftDown(int i) {
+                while (true) {
+                    int child = 2 * i + 1;
+                    if (child >= size) return;
+                    if (child + 1 < size && heap[child + 1].count < heap[child].count) child++;
+                    if (heap[child].count >= heap[i].count) return;
+                    swap(i, child);
+                    i = child;
+                }
+            }
+
+            private void swap(int a, int b) {
+                Entry entry = heap[a];
+                heap[a] = heap[b];
+                heap[b] = entry;
+                heap[a].position = a;
+                heap[b].position = b;
+            }
+        }
+
+        // Top-K names by attempt count, updated as counts arrive; a count below
+        // the current K-th entry skips the lock via the volatile threshold
+        static final class Leaderboard {
+            private final String[] names;
+            private final long[] counts;
+            private int size;
+            private volatile long threshold;
+
+            Leaderboard(int k) {
+                names = new String[k];
+                counts = new long[k];
+            }
+
+            void offer(String name, long count) {
+                if (count <= threshold) {
+                    return;
+                }
+                synchronized (this) {
+                    int slot = -1;
+                    for (int i = 0; i < size; i++) {
+                        if (names[i].equals(name)) {
+                            slot = i;
+                            break;
+                        }
+                    }
+                    if (slot < 0) {
+                        if (size < names.length) {
+                            slot = size++;
+                        } else {
+                            slot = minSlot();
+                            if (counts[slot] >= count) return;
+                        }
+                        names[slot] = name;
+                    }
+                    counts[slot] = Math.max(counts[slot], count);
+                    if (size == names.length) {
+                        threshold = counts[minSlot()];
+                    }
+                }
+            }
+
+            private int minSlot() {
+                int min = 0;
+                for (int i = 1; i < size; i++) {
+                    if (counts[i] < counts[min]) min = i;
+                }
+                return min;
+            }
+
+            // Entries largest first
+            synchronized List<Map.Entry<String, Long>> top() {
+                List<Map.Entry<String, Long>> result = new ArrayList<>(size);
+                for (int i = 0; i < size; i++) {
+                    result.add(new AbstractMap.SimpleImmutableEntry<>(names[i], counts[i]));
+                }
+                result.sort((a, b) -> Long.compare(b.getValue(), a.getValue()));
+                return result;
+            }
+        }
+
+        // Blocked Bloom filter: each name maps to one 512-bit block (8 longs, one
+        // cache line) and sets k bits inside it, so a probe touches one line.
+        // Bits are set with an atomic OR on the long[], making concurrent adds
+        // safe without locks; bits are never cleared.
+        static final class BloomFilter {
+            private static final VarHandle WORDS =
+                    MethodHandles.arrayElementVarHandle(long[].class);
+            private static final int BLOCK_WORDS = 8;
+            private static final int BLOCK_BITS = 512;
+
+            private final long[] words;
+            private final int blocks;
+            private final int hashes;
+
+            BloomFilter(long expectedItems, double falsePositiveRate) {
+                // Optimal bits m = -n ln p / (ln 2)^2, k = m/n ln 2
+                double bitsPerItem = -Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2));
+                long bits = (long) Math.ceil(Math.max(1, expectedItems) * bitsPerItem);
+                long blockCount = Math.max(1, (bits + BLOCK_BITS - 1) / BLOCK_BITS);
+                if (blockCount * BLOCK_WORDS > Integer.MAX_VALUE - 8) {
+                    throw new IllegalArgumentException("Bloom filter too large: " + bits + " bits");
+                }
+                this.blocks = (int) blockCount;
+                this.words = new long[blocks * BLOCK_WORDS];
+                this.hashes = (int) Math.max(1, Math.min(16, Math.round(bitsPerItem * Math.log(2))));
+            }
+
+            void add(String value) {
+                addHash(hash64(value));
+            }
+
+            void addHash(long hash) {
+                int base = block(hash);
+                long bits = mix(hash);
+                for (int i = 0; i < hashes; i++) {
+                    if (i > 0 && i % 7 == 0) bits = mix(bits);   // 7 x 9-bit positions per word
+                    int bit = (int) (bits >>> (9 * (i % 7))) & (BLOCK_BITS - 1);
+                    int index = base + (bit >>> 6);
+                    long mask = 1L << bit;
+                    if (((long) WORDS.getAcquire(words, index) & mask) == 0) {
+                        WORDS.getAndBitwiseOr(words, index, mask);
+                    }
+                }
+            }
+
+            boolean mightContain(String value) {
+                return mightContainHash(hash64(value));
+            }
+
+            // Batch probe: hash every value before touching the bit array, so
+            // the independent cache-line loads of the probes can overlap
+            void mightContainAll(List<String> values, int from, int to, boolean[] result) {
+                long[] hashes = new long[to - from];
+                for (int i = from; i < to; i++) {
+                    hashes[i - from] = hash64(values.get(i));
+                }
+                for (int i = 0; i < hashes.length; i++) {
+                    result[i] = mightContainHash(hashes[i]);
+                }
+            }
+
+            private boolean mightContainHash(long hash) {
+                int base = block(hash);
+                long bits = mix(hash);
+                for (int i = 0; i < hashes; i++) {
+                    if (i > 0 && i % 7 == 0) bits = mix(bits);
+                    int bit = (int) (bits >>> (9 * (i % 7))) & (BLOCK_BITS - 1);
+                    if (((long) WORDS.getAcquire(words, base + (bit >>> 6)) & (1L << bit)) == 0) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+
+            private int block(long hash) {
+                // Multiply-shift maps the high 32 bits onto [0, blocks)
+                return (int) (((hash >>> 32) * blocks) >>> 32) * BLOCK_WORDS;
+            }
+
+            long sizeInBytes() {
+                return (long) words.length * Long.BYTES;
+            }
+
+            int hashCount() {
+                return hashes;
+            }
+
+            // FNV-1a over the chars, finished with a murmur3 fmix
+            static long hash64(String value) {
+                long hash = 0xcbf29ce484222325L;
+                for (int i = 0; i < value.length(); i++) {
+                    hash ^= value.charAt(i);
+                    hash *= 0x100000001b3L;
+                }
+                return mix(hash);
+            }
+
+            private static long mix(long hash) {
+                hash ^= hash >>> 33;
+                hash *= 0xff51afd7ed558ccdL;
+                hash ^= hash >>> 33;
+                hash *= 0xc4ceb9fe1a85ec53L;
+                hash ^= hash >>> 33;
+                return hash;
+            }
         }
 
-        // Check username availability in O(1)
+        // Check username availability in O(1); the Bloom filter answers for
+        // names that were never registered, only probable hits reach the map
         public boolean checkAvailability(String username) {
-            attemptCount.put(username, attemptCount.getOrDefault(username, 0) + 1);
-            return !usernameMap.containsKey(username);
+            recordAttempt(username);
+            return !isTaken(username);
+        }
+
+        private void recordAttempt(String username) {
+            AttemptStripe stripe =
+                    attemptStripes[(username.hashCode() & 0x7fffffff) % ATTEMPT_STRIPES];
+            mostAttempted.offer(username, stripe.record(username));
+        }
+
+        // Estimated attempts for a name (0 if it is not among the tracked names)
+        public long getAttemptCount(String username) {
+            return attemptStripes[(username.hashCode() & 0x7fffffff) % ATTEMPT_STRIPES]
+                    .count(username);
+        }
+
+        private boolean isTaken(String username) {
+            if (filterReady && !registered.mightContain(username)) {
+                filterRejects.increment();
+                return false;
+            }
+            filterPasses.increment();
+            return isStored(username);
+        }
+
+        private boolean isStored(String username) {
+            return index != null ? index.contains(username) : usernameMap.containsKey(username);
         }
 
         // Register a new user
         public void registerUser(String username, int userId) {
-            usernameMap.put(username, userId);
+            registered.add(username);
+            if (index != null) {
+                index.put(username, userId);
+            } else {
+                usernameMap.put(username, userId);
+            }
+        }
+
+        // Sync pending registrations to the index file and stop its flusher
+        public void close() throws IOException {
+            if (index != null) {
+                index.close();
+            }
+        }
+
+        // Persistent username index: an open-addressing table of
+        // (64-bit name hash, userId) slots in a memory-mapped file. Opening maps
+        // the file without reading it, and lookups hash the name's chars and
+        // probe the mapping with no allocation. Names are stored only as hashes,
+        // so two names colliding on all 64 bits would share a slot (about 3e-4
+        // chance of any collision at 100M names). Registrations are written into
+        // the mapping in place and reach disk with the OS's write-back, a
+        // background sync every SYNC_INTERVAL registrations, or close; the user
+        // database stays the source of truth. The header is flagged dirty before
+        // the first unsynced write, and a dirty file has its size recounted on
+        // open, so a crash between syncs never leaves a stale size behind.
+        static final class MappedUsernameIndex implements Closeable {
+            static final int NO_USER = Integer.MIN_VALUE;
+
+            private static final int MAGIC = 0x554e4958;   // "UNIX"
+            private static final int VERSION = 1;
+            private static final int HEADER_BYTES = 64;    // magic, version, capacity, size, state
+            private static final int STATE_OFFSET = 24;
+            private static final int CLEAN = 0;
+            private static final int DIRTY = 1;
+            private static final int SLOT_BYTES = 16;      // hash (8), userId (4), unused (4)
+            private static final int REGION_BITS = 26;     // 64M slots = 1 GB per mapping
+            private static final double MAX_LOAD = 0.6;
+            // Writers keep inserting into the old table while it is doubled in
+            // the background, and wait only if it fills up to here first
+            private static final double HARD_LOAD = 0.85;
+            private static final int SYNC_INTERVAL = 50_000;
+
+            // One generation of the mapped table; replaced only when it grows
+            private static final class Table {
+                final MappedByteBuffer header;
+                final MappedByteBuffer[] regions;
+                final long capacity;
+                final int shift;
+
+                Table(MappedByteBuffer header, MappedByteBuffer[] regions, long capacity) {
+                    this.header = header;
+                    this.regions = regions;
+                    this.capacity = capacity;
+                    this.shift = 64 - Long.numberOfTrailingZeros(capacity);
+                }
+
+                // Probes at most every slot once; the load limit keeps empty
+                // slots around, so running out of them means a corrupt file
+                int get(long hash) {
+                    long mask = capacity - 1;
+                    long slot = hash >>> shift;
+                    for (long probes = 0; probes < capacity; probes++, slot = (slot + 1) & mask) {
+                        MappedByteBuffer region = regions[(int) (slot >>> REGION_BITS)];
+                        int offset = (int) (slot & ((1L << REGION_BITS) - 1)) * SLOT_BYTES;
+                        long stored = region.getLong(offset);
+                        if (stored == 0) return NO_USER;
+                        if (stored == hash) {
+                            VarHandle.acquireFence();   // pairs with the fence in put
+                            return region.getInt(offset + 8);
+                        }
+                    }
+                    throw full();
+                }
+
+                // Insert or overwrite; the caller serializes writers and keeps the
+                // load below HARD_LOAD. The userId is written before the hash, so
+                // a concurrent reader that finds the hash also sees its userId.
+                boolean put(long hash, int userId) {
+                    long mask = capacity - 1;
+                    long slot = hash >>> shift;
+                    for (long probes = 0; probes < capacity; probes++, slot = (slot + 1) & mask) {
+                        MappedByteBuffer region = regions[(int) (slot >>> REGION_BITS)];
+                        int offset = (int) (slot & ((1L << REGION_BITS) - 1)) * SLOT_BYTES;
+                        long stored = region.getLong(offset);
+                        if (stored == 0 || stored == hash) {
+                            region.putInt(offset + 8, userId);
+                            VarHandle.releaseFence();
+                            region.putLong(offset, hash);
+                            return stored == 0;
+                        }
+                    }
+                    throw full();
+                }
+
+                private IllegalStateException full() {
+                    return new IllegalStateException("Username index has no empty slot among " +
+                            capacity + "; the file is corrupt");
+                }
+
+                // Flag the file dirty on disk before any unsynced slot can reach it
+                void markDirty() {
+                    header.putInt(STATE_OFFSET, DIRTY);
+                    header.force();
+                }
+
+                void forceRegions() {
+                    for (MappedByteBuffer region : regions) region.force();
+                }
+
+                // Record the size of the flushed regions and flag the file clean
+                void markClean(long size) {
+                    header.putLong(16, size);
+                    header.putInt(STATE_OFFSET, CLEAN);
+                    header.force();
+                }
+
+                long count() {
+                    long size = 0;
+                    for (long slot = 0; slot < capacity; slot++) {
+                        int offset = (int) (slot & ((1L << REGION_BITS) - 1)) * SLOT_BYTES;
+                        if (regions[(int) (slot >>> REGION_BITS)].getLong(offset) != 0) size++;
+                    }
+                    return size;
+                }
+
+                void forEach(SlotVisitor visitor) {
+                    for (long slot = 0; slot < capacity; slot++) {
+                        MappedByteBuffer region = regions[(int) (slot >>> REGION_BITS)];
+                        int offset = (int) (slot & ((1L << REGION_BITS) - 1)) * SLOT_BYTES;
+                        long stored = region.getLong(offset);
+                        if (stored != 0) visitor.visit(stored, region.getInt(offset + 8));
+                    }
+                }
+            }
+
+            interface SlotVisitor {
+                void visit(long hash, int userId);
+            }
+
+            private final Path file;
+            private volatile Table table;
+            // Names in the table; written under the index lock
+            private volatile long size;
+            private int unsynced;
+            // Whether the current table's header is flagged dirty; under the index lock
+            private boolean dirty;
+            // Registrations made while the table is being doubled, replayed into
+            // the new table before it replaces the old one; null when not growing
+            private Map<Long, Integer> pendingGrowth;
+            private final ExecutorService flusher = Executors.newSingleThreadExecutor(r -> {
+                Thread thread = new Thread(r, "username-index-flusher");
+                thread.setDaemon(true);
+                return thread;
+            });
+            private final AtomicBoolean syncPending = new AtomicBoolean();
+            // Last background sync or growth failure, rethrown by close
+            private volatile IOException syncFailure;
+            private volatile IOException growFailure;
+
+            private MappedUsernameIndex(Path file, Table table) {
+                this.file = file;
+                this.table = table;
+                if (table.header.getInt(STATE_OFFSET) != CLEAN) {
+                    // Closed without a final sync: the header size may be stale
+                    table.markClean(table.count());
+                }
+                this.size = table.header.getLong(16);
+            }
+
+            // Map an existing index, or create an empty one sized for expectedNames
+            static MappedUsernameIndex open(Path file, long expectedNames) throws IOException {
+                if (!Files.exists(file)) {
+                    write(file, expectedNames, table -> { });
+                }
+                return new MappedUsernameIndex(file, map(file));
+            }
+
+            // Bulk build from the user database, e.g. when seeding a node
+            static void build(Path file, long expectedNames, NameSource names) throws IOException {
+                write(file, expectedNames, table -> names.forEach((name, userId) ->
+                        table.put(hash(name), userId)));
+            }
+
+            // Anything that can list (name, userId) pairs, e.g. map::forEach
+            interface NameSource {
+                void forEach(BiConsumer<String, Integer> sink);
+            }
+
+            interface TableWriter {
+                void fill(Table table);
+            }
+
+            // Create a table file with room for expectedNames, fill it and sync it
+            private static void write(Path target, long expectedNames, TableWriter writer)
+                    throws IOException {
+                long capacity = Long.highestOneBit(Math.max(1024, (long) (expectedNames / MAX_LOAD)) - 1) << 1;
+                Path temp = temporary(target);
+                Table table = create(temp, capacity);
+                writer.fill(table);
+                table.forceRegions();
+                table.markClean(table.count());
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            }
+
+            private static Path temporary(Path target) {
+                return target.resolveSibling(target.getFileName() + ".tmp");
+            }
+
+            // Empty table file, flagged dirty until its first sync
+            private static Table create(Path file, long capacity) throws IOException {
+                try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ,
+                        StandardOpenOption.WRITE)) {
+                    MappedByteBuffer[] regions = mapRegions(channel, capacity, FileChannel.MapMode.READ_WRITE);
+                    MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES);
+                    header.putInt(MAGIC).putInt(VERSION).putLong(capacity).putLong(0).putInt(DIRTY);
+                    return new Table(header, regions, capacity);
+                }
+            }
+
+            private static Table map(Path file) throws IOException {
+                try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ,
+                        StandardOpenOption.WRITE)) {
+                    MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES);
+                    if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+                        throw new IOException("Not a username index: " + file);
+                    }
+                    long capacity = header.getLong(8);
+                    if (capacity <= 0 || Long.bitCount(capacity) != 1 ||
+                            capacity > (channel.size() - HEADER_BYTES) / SLOT_BYTES) {
+                        throw new IOException("Username index " + file + " is truncated or corrupt");
+                    }
+                    return new Table(header, mapRegions(channel, capacity, FileChannel.MapMode.READ_WRITE),
+                            capacity);
+                }
+            }
+
+            private static MappedByteBuffer[] mapRegions(FileChannel channel, long capacity,
+                                                         FileChannel.MapMode mode) throws IOException {
+                long regionSlots = 1L << REGION_BITS;
+                int count = (int) ((capacity + regionSlots - 1) / regionSlots);
+                MappedByteBuffer[] regions = new MappedByteBuffer[count];
+                for (int r = 0; r < count; r++) {
+                    long slots = Math.min(regionSlots, capacity - r * regionSlots);
+                    regions[r] = channel.map(mode, HEADER_BYTES + r * regionSlots * SLOT_BYTES,
+                            slots * SLOT_BYTES);
+                }
+                return regions;
+            }
+
+            // 0 marks an empty slot, so it is never used as a hash
+            static long hash(String name) {
+                long hash = BloomFilter.hash64(name);
+                return hash == 0 ? 1 : hash;
+            }
+
+            int get(String name) {
+                return table.get(hash(name));
+            }
+
+            boolean contains(String name) {
+                return table.get(hash(name)) != NO_USER;
+            }
+
+            // Insert into the mapping in place. Writers take the index lock;
+            // readers never do. A table past MAX_LOAD is doubled into a new
+            // file in the background while writers carry on in the old one.
+            synchronized void put(String name, int userId) {
+                long hash = hash(name);
+                Table current = table;
+                if (size + 1 > current.capacity * MAX_LOAD && pendingGrowth == null
+                        && growFailure == null) {
+                    pendingGrowth = new HashMap<>();
+                    Table growing = current;
+                    flusher.execute(() -> grow(growing));
+                }
+                boolean interrupted = false;
+                while (size + 1 > current.capacity * HARD_LOAD) {
+                    if (pendingGrowth == null) {
+                        throw new UncheckedIOException("Growing username index " + file + " failed",
+                                growFailure);
+                    }
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                    current = table;
+                }
+                if (interrupted) Thread.currentThread().interrupt();
+
+                if (!dirty) {
+                    current.markDirty();
+                    dirty = true;
+                }
+                if (current.put(hash, userId)) {
+                    size++;
+                }
+                if (pendingGrowth != null) {
+                    pendingGrowth.put(hash, userId);
+                }
+                if (++unsynced >= SYNC_INTERVAL && syncPending.compareAndSet(false, true)) {
+                    unsynced = 0;
+                    flusher.execute(this::backgroundSync);
+                }
+            }
+
+            // Runs on the flusher: copy into a table twice the size, replay the
+            // registrations made meanwhile, and swap it in. Only the last few
+            // replayed registrations and the rename happen under the lock.
+            private void grow(Table current) {
+                Path temp = temporary(file);
+                try {
+                    Table next = create(temp, current.capacity * 2);
+                    current.forEach(next::put);
+                    for (int round = 0; round < 4; round++) {
+                        Map<Long, Integer> replay;
+                        synchronized (this) {
+                            replay = pendingGrowth;
+                            pendingGrowth = new HashMap<>();
+                        }
+                        if (replay.isEmpty()) break;
+                        replay.forEach(next::put);
+                    }
+                    next.forceRegions();
+                    next.markDirty();
+                    synchronized (this) {
+                        pendingGrowth.forEach(next::put);
+                        pendingGrowth = null;
+                        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING,
+                                StandardCopyOption.ATOMIC_MOVE);
+                        table = next;
+                        dirty = true;
+                        notifyAll();
+                    }
+                } catch (IOException | UncheckedIOException e) {
+                    IOException failure = e instanceof IOException ? (IOException) e
+                            : ((UncheckedIOException) e).getCause();
+                    synchronized (this) {
+                        growFailure = failure;
+                        pendingGrowth = null;
+                        notifyAll();
+                    }
+                    try {
+                        Files.deleteIfExists(temp);
+                    } catch (IOException ignored) {
+                        // the next growth truncates it anyway
+                    }
+                    System.err.println("MappedUsernameIndex: growing " + file + " failed: " + failure);
+                }
+            }
+
+            private void backgroundSync() {
+                try {
+                    sync();
+                } catch (IOException e) {
+                    syncFailure = e;
+                    System.err.println("MappedUsernameIndex: sync of " + file + " failed: " + e);
+                } finally {
+                    syncPending.set(false);
+                }
+            }
+
+            long size() {
+                return size;
+            }
+
+            void forEachHash(LongConsumer action) {
+                table.forEach((hash, userId) -> action.accept(hash));
+            }
+
+            // Flush registrations so far to disk, with the size in the header.
+            // The file is flagged clean only if nothing was registered since.
+            void sync() throws IOException {
+                Table current;
+                long synced;
+                synchronized (this) {
+                    current = table;
+                    synced = size;
+                    dirty = false;
+                }
+                try {
+                    current.forceRegions();
+                    synchronized (this) {
+                        if (!dirty && table == current) {
+                            current.markClean(synced);
+                        }
+                    }
+                } catch (UncheckedIOException e) {
+                    throw e.getCause();
+                }
+            }
+
+            @Override
+            public void close() throws IOException {
+                flusher.shutdown();
+                try {
+                    flusher.awaitTermination(1, TimeUnit.MINUTES);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                sync();
+                IOException failure = syncFailure != null ? syncFailure : growFailure;
+                if (failure != null) {
+                    throw new IOException("Earlier sync or growth of " + file + " failed", failure);
+                }
+            }
+        }
+
+        // Share of availability checks the Bloom filter answered on its own
+        public double filterHitRate() {
+            long rejects = filterRejects.sum();
+            long total = rejects + filterPasses.sum();
+            return total == 0 ? 0 : (double) rejects / total;
+        }
+
+        // Suggestion defaults: how many names to return and the time allowed
+        private static final int DEFAULT_SUGGESTIONS = 5;
+        private static final long DEFAULT_SUGGESTION_BUDGET_NANOS = 2_000_000;
+        private static final int MAX_CANDIDATES = 512;
+        private static final int SUGGESTION_BATCH = 64;
+
+        private static final String[] PREFIX_WORDS = {"the", "real", "its", "iam", "hey", "mr", "official"};
+        private static final String[] SUFFIX_WORDS = {"official", "hq", "dev", "io", "app", "online", "x", "tv"};
+        private static final String[] SEPARATORS = {".", "_", "-", ""};
+        private static final Pattern SEPARATOR_RUN = Pattern.compile("[._-]+");
+        private static final Pattern VOWEL_AFTER_FIRST = Pattern.compile("(?<=.)[aeiou]");
+
+        // Year suffixes for the current year and the 30 before it, rebuilt
+        // only when the year rolls over
+        private static final class YearSuffixes {
+            final long validUntilMillis;
+            final String[] years = new String[31];
+            final String[] underscored = new String[31];
+            final String[] twoDigit = new String[31];
+
+            YearSuffixes(long nowMillis) {
+                ZonedDateTime now = Instant.ofEpochMilli(nowMillis).atZone(ZoneId.systemDefault());
+                int year = now.getYear();
+                validUntilMillis = now.toLocalDate().withDayOfYear(1).plusYears(1)
+                        .atStartOfDay(now.getZone()).toInstant().toEpochMilli();
+                for (int i = 0; i < years.length; i++) {
+                    int y = year - i;
+                    years[i] = Integer.toString(y);
+                    underscored[i] = "_" + y;
+                    int yy = y % 100;
+                    twoDigit[i] = yy < 10 ? "0" + yy : Integer.toString(yy);
+                }
+            }
+        }
+
+        private static volatile YearSuffixes yearSuffixes = new YearSuffixes(System.currentTimeMillis());
+
+        private static YearSuffixes yearSuffixes() {
+            YearSuffixes current = yearSuffixes;
+            long now = System.currentTimeMillis();
+            if (now >= current.validUntilMillis) {
+                current = new YearSuffixes(now);
+                yearSuffixes = current;
+            }
+            return current;
         }
 
         // Suggest similar available usernames
         public List<String> suggestAlternatives(String username) {
-            List<String> suggestions = new ArrayList<>();
+            return suggestAlternatives(username, DEFAULT_SUGGESTIONS, DEFAULT_SUGGESTION_BUDGET_NANOS);
+        }
+
+        // First `limit` available candidates in rank order. Candidates are checked
+        // in batches: one Bloom pass per batch settles most of them, and only the
+        // probable hits go to the exact store. Stops when the budget runs out,
+        // returning what was found so far.
+        public List<String> suggestAlternatives(String username, int limit, long budgetNanos) {
+            long deadline = System.nanoTime() + budgetNanos;
+            List<String> candidates = generateCandidates(username);
+            List<String> available = new ArrayList<>(limit);
+            boolean[] maybeTaken = new boolean[SUGGESTION_BATCH];
+            List<String> probableHits = new ArrayList<>(SUGGESTION_BATCH);
+            long rejects = 0, passes = 0;
+
+            for (int from = 0; from < candidates.size() && available.size() < limit;
+                 from += SUGGESTION_BATCH) {
+                int to = Math.min(candidates.size(), from + SUGGESTION_BATCH);
+                if (filterReady) {
+                    registered.mightContainAll(candidates, from, to, maybeTaken);
+                } else {
+                    Arrays.fill(maybeTaken, true);
+                }
+
+                probableHits.clear();
+                for (int i = from; i < to; i++) {
+                    if (maybeTaken[i - from]) probableHits.add(candidates.get(i));
+                }
+                Set<String> taken = takenInStore(probableHits);
+                passes += probableHits.size();
+                rejects += (to - from) - probableHits.size();
 
-            // Append numbers
-            for (int i = 1; i <= 5; i++) {
-                String newUsername = username + i;
-                if (!usernameMap.containsKey(newUsername)) {
-                    suggestions.add(newUsername);
+                for (int i = from; i < to && available.size() < limit; i++) {
+                    String candidate = candidates.get(i);
+                    if (!maybeTaken[i - from] || !taken.contains(candidate)) {
+                        available.add(candidate);
+                    }
+                }
+                if (System.nanoTime() >= deadline) {
+                    break;
                 }
             }
 
-            // Replace underscore with dot
-            if (username.contains("_")) {
-                String modified = username.replace("_", ".");
-                if (!usernameMap.containsKey(modified)) {
-                    suggestions.add(modified);
+            filterRejects.add(rejects);
+            filterPasses.add(passes);
+            return available;
+        }
+
+        // Exact-store membership for a batch of names
+        private Set<String> takenInStore(List<String> names) {
+            Set<String> taken = new HashSet<>();
+            for (String name : names) {
+                if (isStored(name)) taken.add(name);
+            }
+            return taken;
+        }
+
+        // Candidate names, best first: the original digit and dot variants,
+        // separator changes, years, numbers, prefix/suffix words, character
+        // tweaks, then longer numbers. Duplicates and the name itself are dropped.
+        static List<String> generateCandidates(String username) {
+            if (username.isEmpty()) {
+                return Collections.emptyList();
+            }
+            Set<String> candidates = new LinkedHashSet<>();
+            String[] parts = SEPARATOR_RUN.split(username);
+            String joined = String.join("", parts);
+
+            for (int i = 1; i <= 5; i++) candidates.add(username + i);
+            if (username.contains("_")) candidates.add(username.replace("_", "."));
+
+            // Separators
+            if (parts.length > 1) {
+                for (String separator : SEPARATORS) {
+                    candidates.add(String.join(separator, parts));
                 }
             }
+            for (String separator : new String[]{"_", "."}) {
+                for (int i = 1; i <= 9; i++) candidates.add(username + separator + i);
+            }
+
+            // Years and two-digit years
+            YearSuffixes years = yearSuffixes();
+            for (int i = 0; i < years.years.length; i++) {
+                candidates.add(username + years.years[i]);
+                candidates.add(username + years.underscored[i]);
+                candidates.add(username + years.twoDigit[i]);
+            }
+
+            // Numbers
+            for (int i = 6; i <= 99; i++) candidates.add(username + i);
+            for (int i = 10; i <= 99; i++) candidates.add(username + "_" + i);
+
+            // Prefix and suffix words
+            for (String word : PREFIX_WORDS) {
+                candidates.add(word + username);
+                candidates.add(word + "_" + username);
+            }
+            for (String word : SUFFIX_WORDS) {
+                candidates.add(username + "_" + word);
+                candidates.add(username + word);
+            }
+
+            // Character tweaks: doubled last letter, adjacent swaps, leetspeak, no vowels
+            candidates.add(username + username.charAt(username.length() - 1));
+            char[] chars = joined.toCharArray();
+            for (int i = 0; i + 1 < chars.length; i++) {
+                if (chars[i] == chars[i + 1]) continue;
+                char[] swapped = chars.clone();
+                swapped[i] = chars[i + 1];
+                swapped[i + 1] = chars[i];
+                candidates.add(new String(swapped));
+            }
+            candidates.add(username.replace('a', '4').replace('e', '3')
+                    .replace('i', '1').replace('o', '0'));
+            candidates.add(VOWEL_AFTER_FIRST.matcher(joined).replaceAll(""));
 
-            return suggestions;
+            // Three-digit numbers fill the rest
+            for (int i = 100; candidates.size() < MAX_CANDIDATES + 1 && i <= 999; i++) {
+                candidates.add(username + i);
+            }
+
+            candidates.remove(username);
+            List<String> result = new ArrayList<>(candidates);
+            return result.size() > MAX_CANDIDATES ? result.subList(0, MAX_CANDIDATES) : result;
         }
 
         // Get most attempted username
         public String getMostAttempted() {
-            String mostAttempted = "";
-            int maxCount = 0;
+            List<Map.Entry<String, Long>> top = mostAttempted.top();
+            if (top.isEmpty()) {
+                return " (0 attempts)";
+            }
+            return top.get(0).getKey() + " (" + top.get(0).getValue() + " attempts)";
+        }
+
+        // Most attempted names with estimated counts, largest first, in O(K)
+        public List<Map.Entry<String, Long>> getMostAttempted(int k) {
+            List<Map.Entry<String, Long>> top = mostAttempted.top();
+            return top.subList(0, Math.min(k, top.size()));
+        }
+
+        // Popular handles whose obvious variants are all taken: the old five
+        // digits plus dot swap vs. the ranked, batched engine
+        static void suggestionBenchmark() {
+            int fillerNames = 5_000_000;
+            int handles = 2_000;
+            int takenPerHandle = 200;   // first 200 ranked candidates are registered
+
+            UsernameAvailabilityChecker checker =
+                    new UsernameAvailabilityChecker(fillerNames + (long) handles * (takenPerHandle + 1), 0.01);
+            long start = System.nanoTime();
+            int userId = 0;
+            for (int i = 0; i < fillerNames; i++) {
+                checker.registerUser("user_" + i, userId++);
+            }
+            for (int h = 0; h < handles; h++) {
+                String handle = "cool_handle" + h;
+                checker.registerUser(handle, userId++);
+                List<String> candidates = generateCandidates(handle);
+                for (int i = 0; i < takenPerHandle; i++) {
+                    checker.registerUser(candidates.get(i), userId++);
+                }
+            }
+            System.out.printf("Registered %,d names in %d ms%n",
+                    userId, (System.nanoTime() - start) / 1_000_000);
+
+            // Old behaviour: five digit suffixes and the underscore swap
+            int legacyEmpty = 0;
+            for (int h = 0; h < handles; h++) {
+                String handle = "cool_handle" + h;
+                boolean found = !checker.usernameMap.containsKey(handle.replace("_", "."));
+                for (int i = 1; i <= 5; i++) {
+                    found |= !checker.usernameMap.containsKey(handle + i);
+                }
+                if (!found) legacyEmpty++;
+            }
+
+            long[] latencies = new long[handles];
+            int full = 0;
+            long filterRejectsBefore = checker.filterRejects.sum();
+            long filterPassesBefore = checker.filterPasses.sum();
+            for (int round = 0; round < 2; round++) {   // first round warms up
+                full = 0;
+                for (int h = 0; h < handles; h++) {
+                    long t0 = System.nanoTime();
+                    List<String> suggestions = checker.suggestAlternatives("cool_handle" + h);
+                    latencies[h] = System.nanoTime() - t0;
+                    if (suggestions.size() == DEFAULT_SUGGESTIONS) full++;
+                }
+            }
+            Arrays.sort(latencies);
+            long rejects = checker.filterRejects.sum() - filterRejectsBefore;
+            long passes = checker.filterPasses.sum() - filterPassesBefore;
+
+            System.out.printf("Suggestions for %d crowded handles: legacy returned nothing for %d; " +
+                            "engine returned %d/%d names for %d, p50 %d us, p99 %d us, " +
+                            "%.1f%% of checked candidates settled by the Bloom filter%n",
+                    handles, legacyEmpty, DEFAULT_SUGGESTIONS, DEFAULT_SUGGESTIONS, full,
+                    latencies[handles / 2] / 1000, latencies[handles * 99 / 100] / 1000,
+                    rejects * 100.0 / Math.max(1, rejects + passes));
+            System.out.println("e.g. suggestAlternatives('cool_handle0'): "
+                    + checker.suggestAlternatives("cool_handle0"));
+        }
+
+        // Persistent index: build once, then startup cost, lookup cost and
+        // allocation, and in-place inserts of new registrations
+        static void indexBenchmark() throws IOException, InterruptedException {
+            int names = 10_000_000;
+            Path file = Files.createTempFile("usernames", ".idx");
+            Files.delete(file);
+            try {
+                long start = System.nanoTime();
+                MappedUsernameIndex.build(file, names, sink -> {
+                    for (int i = 0; i < names; i++) sink.accept("user_" + i, i);
+                });
+                System.out.printf("Index: built %,d names in %d ms (%d MB file)%n", names,
+                        (System.nanoTime() - start) / 1_000_000, Files.size(file) >> 20);
+
+                start = System.nanoTime();
+                UsernameAvailabilityChecker checker =
+                        new UsernameAvailabilityChecker(file, names + 200_000L, 0.01);
+                long openMicros = (System.nanoTime() - start) / 1000;
+                start = System.nanoTime();
+                while (!checker.filterReady) Thread.sleep(1);
+                long warmMillis = (System.nanoTime() - start) / 1_000_000;
+
+                int probes = 1_000_000;
+                String[] hits = new String[probes];
+                String[] misses = new String[probes];
+                Random random = new Random(9);
+                for (int i = 0; i < probes; i++) {
+                    hits[i] = "user_" + random.nextInt(names);
+                    misses[i] = "nobody_" + i;
+                }
+                com.sun.management.ThreadMXBean threads =
+                        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+                long found = 0;
+                for (int round = 0; round < 2; round++) {   // first round warms up
+                    found = 0;
+                    long allocated = threads.getCurrentThreadAllocatedBytes();
+                    start = System.nanoTime();
+                    for (String name : hits) if (checker.index.get(name) != MappedUsernameIndex.NO_USER) found++;
+                    for (String name : misses) if (checker.index.contains(name)) found--;
+                    long nanos = System.nanoTime() - start;
+                    allocated = threads.getCurrentThreadAllocatedBytes() - allocated;
+                    if (round == 1) {
+                        System.out.printf("Index: opened in %d us, Bloom filter filled in %d ms; " +
+                                        "%,d hits found, %d ns/lookup, %d bytes allocated for %,d lookups%n",
+                                openMicros, warmMillis, found, nanos / (2L * probes), allocated, 2 * probes);
+                    }
+                }
+
+                // New registrations are written into the mapping in place
+                start = System.nanoTime();
+                for (int i = 0; i < 120_000; i++) checker.registerUser("fresh_" + i, names + i);
+                long registerMillis = (System.nanoTime() - start) / 1_000_000;
+                checker.close();
+                long closeMillis = (System.nanoTime() - start) / 1_000_000 - registerMillis;
 
-            for (Map.Entry<String, Integer> entry : attemptCount.entrySet()) {
-                if (entry.getValue() > maxCount) {
-                    maxCount = entry.getValue();
-                    mostAttempted = entry.getKey();
+                UsernameAvailabilityChecker reopened =
+                        new UsernameAvailabilityChecker(file, names + 200_000L, 0.01);
+                int missing = 0;
+                for (int i = 0; i < 120_000; i++) {
+                    if (reopened.index.get("fresh_" + i) != names + i) missing++;
                 }
+                System.out.printf("Index: 120,000 registrations in %d ms, final sync %d ms, " +
+                                "%,d names after reopen, %d missing%n",
+                        registerMillis, closeMillis, reopened.index.size(), missing);
+                reopened.close();
+
+                // An index opened far too small doubles in place as names arrive
+                Files.delete(file);
+                UsernameAvailabilityChecker small = new UsernameAvailabilityChecker(file, 1_000, 0.01);
+                start = System.nanoTime();
+                long slowestMicros = 0;
+                for (int i = 0; i < 100_000; i++) {
+                    long before = System.nanoTime();
+                    small.registerUser("grown_" + i, i);
+                    slowestMicros = Math.max(slowestMicros, (System.nanoTime() - before) / 1000);
+                }
+                long growMillis = (System.nanoTime() - start) / 1_000_000;
+                small.close();
+                UsernameAvailabilityChecker regrown = new UsernameAvailabilityChecker(file, 100_000, 0.01);
+                for (int i = 0; i < 100_000; i++) {
+                    if (regrown.index.get("grown_" + i) != i) {
+                        throw new IllegalStateException("grown_" + i + " lost while growing the index");
+                    }
+                }
+                System.out.printf("Index: grew from 2,048 slots to hold %,d names in %d ms " +
+                                "(%d KB file), slowest registration %d us%n",
+                        regrown.index.size(), growMillis, Files.size(file) >> 10, slowestMicros);
+                regrown.close();
+
+                // A writer that dies between syncs leaves the header flagged
+                // dirty, and reopening recounts instead of trusting its size
+                Files.delete(file);
+                MappedUsernameIndex crashed = MappedUsernameIndex.open(file, 100_000);
+                for (int i = 0; i < 60_000; i++) crashed.put("crashed_" + i, i);
+                crashed.sync();
+                for (int i = 60_000; i < 70_000; i++) crashed.put("crashed_" + i, i);
+                long headerSize = crashed.table.header.getLong(16);
+                MappedUsernameIndex recovered = MappedUsernameIndex.open(file, 100_000);
+                if (recovered.size() != 70_000 || recovered.get("crashed_69999") != 69_999) {
+                    throw new IllegalStateException("size after an unsynced crash: " + recovered.size());
+                }
+                System.out.printf("Index: reopened after an unsynced crash with %,d names " +
+                        "(header said %,d before the recount)%n", recovered.size(), headerSize);
+                recovered.close();
+                crashed.close();
+            } finally {
+                Files.deleteIfExists(file);
+                Files.deleteIfExists(file.resolveSibling(file.getFileName() + ".tmp"));
+            }
+        }
+
+        // Concurrent attempts on Zipf-distributed names: the old get-then-put
+        // counter vs. the striped counters
+        static void attemptCountingReport() throws InterruptedException {
+            int threads = 4;
+            int perThread = 250_000;
+            String[] names = new String[perThread];
+            Random random = new Random(5);
+            for (int i = 0; i < perThread; i++) {
+                names[i] = "name_" + (int) Math.pow(500_000, random.nextDouble());
             }
+            Map<String, Integer> exact = new HashMap<>();
+            for (String name : names) exact.merge(name, threads, Integer::sum);
 
-            return mostAttempted + " (" + maxCount + " attempts)";
+            ConcurrentHashMap<String, Integer> racy = new ConcurrentHashMap<>();
+            long start = System.nanoTime();
+            runThreads(threads, () -> {
+                for (String name : names) racy.put(name, racy.getOrDefault(name, 0) + 1);
+            });
+            long racyNanos = System.nanoTime() - start;
+            long racyTotal = racy.values().stream().mapToLong(Integer::longValue).sum();
+
+            UsernameAvailabilityChecker checker = new UsernameAvailabilityChecker(1000, 0.01, 10_000);
+            start = System.nanoTime();
+            runThreads(threads, () -> {
+                for (String name : names) checker.checkAvailability(name);
+            });
+            long nanos = System.nanoTime() - start;
+            long stripedTotal = 0;
+            for (AttemptStripe stripe : checker.attemptStripes) stripedTotal += stripe.total();
+
+            List<String> exactTop = new ArrayList<>(exact.keySet());
+            exactTop.sort((a, b) -> exact.get(b) - exact.get(a));
+            int matches = 0;
+            for (Map.Entry<String, Long> entry : checker.getMostAttempted(TOP_ATTEMPTED)) {
+                if (exactTop.subList(0, TOP_ATTEMPTED).contains(entry.getKey())) matches++;
+            }
+
+            long checks = (long) threads * perThread;
+            System.out.printf("Attempts (%d threads, %,d checks, %,d names): get-then-put counted %,d " +
+                            "(%d ns/op, unbounded); striped counted %,d in 10k slots, top-%d %d/%d exact, " +
+                            "%d ns/check%n",
+                    threads, checks, exact.size(), racyTotal, racyNanos / checks, stripedTotal,
+                    TOP_ATTEMPTED, matches, TOP_ATTEMPTED, nanos / checks);
+        }
+
+        private static void runThreads(int threads, Runnable task) throws InterruptedException {
+            Thread[] workers = new Thread[threads];
+            for (int i = 0; i < threads; i++) {
+                workers[i] = new Thread(task);
+                workers[i].start();
+            }
+            for (Thread worker : workers) worker.join();
+        }
+
+        // False-positive rate and footprint of the filter at several sizes
+        static void bloomFilterReport() {
+            double[] targets = {0.01, 0.001};
+            int[] sizes = {1_000_000, 5_000_000};
+            for (int names : sizes) {
+                for (double target : targets) {
+                    UsernameAvailabilityChecker checker =
+                            new UsernameAvailabilityChecker(names, target);
+                    long start = System.nanoTime();
+                    for (int i = 0; i < names; i++) {
+                        checker.registered.add("user_" + i);
+                    }
+                    long addNanos = System.nanoTime() - start;
+
+                    int missing = 0;
+                    for (int i = 0; i < names; i++) {
+                        if (!checker.registered.mightContain("user_" + i)) missing++;
+                    }
+
+                    int probes = 1_000_000;
+                    int falsePositives = 0;
+                    start = System.nanoTime();
+                    for (int i = 0; i < probes; i++) {
+                        if (checker.registered.mightContain("free_" + i)) falsePositives++;
+                    }
+                    long probeNanos = System.nanoTime() - start;
+
+                    System.out.printf("Bloom %,d names @ %.1f%% target: FPR %.3f%%, %d hashes, " +
+                                    "%.2f MB per million names, false negatives %d, add %d ns, probe %d ns%n",
+                            names, target * 100, falsePositives * 100.0 / probes,
+                            checker.registered.hashCount(),
+                            checker.registered.sizeInBytes() / (names / 1e6) / (1 << 20),
+                            missing, addNanos / names, probeNanos / probes);
+                }
+            }
+
+            // Exact tier for comparison: heap held by a ConcurrentHashMap of 1M names
+            Runtime runtime = Runtime.getRuntime();
+            System.gc();
+            long before = runtime.totalMemory() - runtime.freeMemory();
+            ConcurrentHashMap<String, Integer> exact = new ConcurrentHashMap<>();
+            for (int i = 0; i < 1_000_000; i++) exact.put("user_" + i, i);
+            System.gc();
+            long after = runtime.totalMemory() - runtime.freeMemory();
+            System.out.printf("ConcurrentHashMap<String, Integer>: ~%.1f MB per million names (%d entries)%n",
+                    (after - before) / (double) (1 << 20), exact.size());
         }
 
         // Main method for testing
-        public static void main(String[] args) {
+        public static void main(String[] args) throws IOException, InterruptedException {
             UsernameAvailabilityChecker checker = new UsernameAvailabilityChecker();
 
             // Register some users
@@ -87,6 +1299,11 @@ import java.util.concurrent.ConcurrentHashMap;
 
             System.out.println("getMostAttempted(): "
                     + checker.getMostAttempted());
+
+            bloomFilterReport();
+            attemptCountingReport();
+            suggestionBenchmark();
+            indexBenchmark();
         }
     }
 